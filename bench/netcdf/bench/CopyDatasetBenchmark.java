@@ -0,0 +1,63 @@
+package netcdf.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import clojure.lang.Keyword;
+import clojure.lang.PersistentVector;
+
+/**
+ * Copies a variable of a dataset with dataset/copy-dataset, in one
+ * piece and in chunks of time steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyDatasetBenchmark {
+
+    @Param({"test-resources/akw-htsgwsfc-2014-01-14T00.nc", "synthetic:720x361x8:0.3"})
+    public String url;
+
+    @Param({"0", "4"})
+    public int chunkSize;
+
+    private IFn copyDataset;
+    private String source;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("netcdf.dataset"));
+        copyDataset = Clojure.var("netcdf.dataset", "copy-dataset");
+        source = SyntheticDataset.resolve(url);
+        target = new File("target/bench-copy/" + new File(source).getName());
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteTarget() {
+        for (String suffix: new String[]{"", ".md5", ".progress"})
+            new File(target.getPath() + suffix).delete();
+    }
+
+    @Benchmark
+    public Object copyDataset() {
+        PersistentVector variables = PersistentVector.create(SyntheticDataset.VARIABLE);
+        if (chunkSize > 0)
+            return copyDataset.invoke(source, target.getPath(), variables, Keyword.intern("chunk-size"), chunkSize);
+        return copyDataset.invoke(source, target.getPath(), variables);
+    }
+
+}
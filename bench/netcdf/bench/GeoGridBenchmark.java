@@ -0,0 +1,82 @@
+package netcdf.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import clojure.lang.PersistentVector;
+
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import netcdf.grid.GridDatasetCache;
+import netcdf.grid.LatLonTable;
+
+/**
+ * Reads a whole time step with geo-grid/read-seq and a batch of
+ * points with geo-grid/read-locations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GeoGridBenchmark {
+
+    @Param({"test-resources/akw-htsgwsfc-2014-01-14T00.nc", "synthetic:720x361x8:0.3"})
+    public String url;
+
+    @Param({"100"})
+    public int locations;
+
+    private IFn readSeq;
+    private IFn readLocations;
+    private GridDataset dataset;
+    private GridDatatype grid;
+    private PersistentVector points;
+
+    @Setup
+    public void setUp() throws IOException {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("netcdf.geo-grid"));
+        readSeq = Clojure.var("netcdf.geo-grid", "read-seq");
+        readLocations = Clojure.var("netcdf.geo-grid", "read-locations");
+        dataset = GridDatasetCache.getInstance().acquire(SyntheticDataset.resolve(url));
+        grid = dataset.findGridDatatype(SyntheticDataset.VARIABLE);
+        LatLonTable table = LatLonTable.of(grid.getCoordinateSystem());
+        int cells = table.getWidth() * table.getHeight();
+        int step = Math.max(1, cells / locations);
+        List<Object> list = new ArrayList<Object>();
+        for (int n = 0; n < cells && list.size() < locations; n += step)
+            list.add(table.getLatLon(n % table.getWidth(), n / table.getWidth()));
+        points = PersistentVector.create(list);
+    }
+
+    @TearDown
+    public void tearDown() {
+        GridDatasetCache.getInstance().release(dataset);
+    }
+
+    @Benchmark
+    public void readSeq(Blackhole blackhole) {
+        for (Object record: (Iterable<?>) readSeq.invoke(grid))
+            blackhole.consume(record);
+    }
+
+    @Benchmark
+    public void readLocations(Blackhole blackhole) {
+        for (Object value: (Iterable<?>) readLocations.invoke(grid, points))
+            blackhole.consume(value);
+    }
+
+}
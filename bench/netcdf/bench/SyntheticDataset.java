@@ -0,0 +1,194 @@
+package netcdf.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+/**
+ * Generates NetCDF files with a single regular lat/lon grid of
+ * configurable shape, number of time steps and land fraction, used as
+ * benchmark fixtures. Land cells are written as missing values, the
+ * sea cells follow a smooth field with some noise. Files are generated
+ * once per shape into the fixture directory and reused afterwards.
+ */
+public class SyntheticDataset {
+
+    public static final String VARIABLE = "htsgwsfc";
+    public static final String PREFIX = "synthetic:";
+    public static final float FILL_VALUE = 9.999e20f;
+
+    private static final File DIRECTORY = new File(System.getProperty("netcdf.bench.fixtures", "target/bench-fixtures"));
+
+    private final int width;
+    private final int height;
+    private final int times;
+    private final double landFraction;
+
+    public SyntheticDataset(int width, int height, int times, double landFraction) {
+        if (width < 2 || height < 2 || times < 1)
+            throw new IllegalArgumentException("Invalid shape " + width + "x" + height + "x" + times + ".");
+        if (landFraction < 0 || landFraction >= 1)
+            throw new IllegalArgumentException("Invalid land fraction " + landFraction + ".");
+        this.width = width;
+        this.height = height;
+        this.times = times;
+        this.landFraction = landFraction;
+    }
+
+    /**
+     * Parses a spec of the form "WIDTHxHEIGHTxTIMES" or
+     * "WIDTHxHEIGHTxTIMES:LAND", optionally prefixed with "synthetic:".
+     */
+    public static SyntheticDataset parse(String spec) {
+        String string = spec.startsWith(PREFIX) ? spec.substring(PREFIX.length()) : spec;
+        String[] parts = string.split(":");
+        String[] shape = parts[0].split("x");
+        if (shape.length != 3 || parts.length > 2)
+            throw new IllegalArgumentException("Invalid synthetic dataset spec: " + spec);
+        return new SyntheticDataset(
+            Integer.parseInt(shape[0]), Integer.parseInt(shape[1]), Integer.parseInt(shape[2]),
+            parts.length > 1 ? Double.parseDouble(parts[1]) : 0);
+    }
+
+    /**
+     * Returns the absolute path of `url`, generating the dataset first
+     * if it names a synthetic dataset.
+     */
+    public static String resolve(String url) throws IOException {
+        if (url.startsWith(PREFIX))
+            return parse(url).getFile().getAbsolutePath();
+        return new File(url).getAbsolutePath();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTimes() {
+        return times;
+    }
+
+    public double getLandFraction() {
+        return landFraction;
+    }
+
+    /**
+     * Returns the file of the dataset in the fixture directory,
+     * generating it if it doesn't exist yet.
+     */
+    public File getFile() throws IOException {
+        File file = new File(DIRECTORY, String.format(Locale.US, "synthetic-%dx%dx%d-%.2f.nc", width, height, times, landFraction));
+        if (!file.isFile()) {
+            DIRECTORY.mkdirs();
+            File temp = new File(file.getPath() + ".tmp");
+            write(temp);
+            if (!temp.renameTo(file))
+                throw new IOException("Can't rename " + temp + " to " + file + ".");
+        }
+        return file;
+    }
+
+    /**
+     * Returns the latitude at row `y`, from south to north.
+     */
+    public double getLatitude(int y) {
+        return -90 + 180.0 * (y + 0.5) / height;
+    }
+
+    /**
+     * Returns the longitude at column `x`, from 0 to 360.
+     */
+    public double getLongitude(int x) {
+        return 360.0 * x / width;
+    }
+
+    /**
+     * Returns the land mask, a fixed random fraction of the cells.
+     */
+    boolean[] landMask() {
+        boolean[] land = new boolean[width * height];
+        Random random = new Random(42);
+        for (int n = 0; n < land.length; ++n)
+            land[n] = random.nextDouble() < landFraction;
+        return land;
+    }
+
+    void write(File file) throws IOException {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+        try {
+            writer.setLargeFile(4L * width * height * times > Integer.MAX_VALUE);
+            writer.addUnlimitedDimension("time");
+            writer.addDimension(null, "lat", height);
+            writer.addDimension(null, "lon", width);
+
+            Variable timeVariable = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+            writer.addVariableAttribute(timeVariable, new Attribute("units", "hours since 2014-01-14 00:00:00"));
+            writer.addVariableAttribute(timeVariable, new Attribute("standard_name", "time"));
+            Variable latVariable = writer.addVariable(null, "lat", DataType.DOUBLE, "lat");
+            writer.addVariableAttribute(latVariable, new Attribute("units", "degrees_north"));
+            Variable lonVariable = writer.addVariable(null, "lon", DataType.DOUBLE, "lon");
+            writer.addVariableAttribute(lonVariable, new Attribute("units", "degrees_east"));
+            Variable variable = writer.addVariable(null, VARIABLE, DataType.FLOAT, "time lat lon");
+            writer.addVariableAttribute(variable, new Attribute("long_name", "significant height of combined wind waves and swell [m]"));
+            writer.addVariableAttribute(variable, new Attribute("_FillValue", FILL_VALUE));
+            writer.addVariableAttribute(variable, new Attribute("missing_value", FILL_VALUE));
+            writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.0"));
+            writer.create();
+
+            ArrayDouble.D1 lats = new ArrayDouble.D1(height);
+            for (int y = 0; y < height; ++y)
+                lats.set(y, getLatitude(y));
+            ArrayDouble.D1 lons = new ArrayDouble.D1(width);
+            for (int x = 0; x < width; ++x)
+                lons.set(x, getLongitude(x));
+            writer.write(latVariable, lats);
+            writer.write(lonVariable, lons);
+
+            boolean[] land = landMask();
+            Random random = new Random(7);
+            ArrayDouble.D1 hours = new ArrayDouble.D1(1);
+            ArrayFloat.D3 plane = new ArrayFloat.D3(1, height, width);
+            Index index = plane.getIndex();
+            int[] origin = new int[3];
+            for (int t = 0; t < times; ++t) {
+                hours.set(0, 3 * t);
+                origin[0] = t;
+                writer.write(timeVariable, new int[]{t}, hours);
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        float value = land[y * width + x] ? FILL_VALUE : (float)
+                            (2 + Math.sin(Math.toRadians(getLatitude(y) * 2 + t))
+                             * Math.cos(Math.toRadians(getLongitude(x) + 5 * t))
+                             + 0.1 * random.nextDouble());
+                        plane.setFloat(index.set(0, y, x), value);
+                    }
+                }
+                writer.write(variable, origin, plane);
+            }
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s%dx%dx%d:%.2f", PREFIX, width, height, times, landFraction);
+    }
+
+}
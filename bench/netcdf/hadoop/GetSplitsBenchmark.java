@@ -0,0 +1,58 @@
+package netcdf.hadoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import netcdf.bench.SyntheticDataset;
+
+/**
+ * Plans the splits of a job over several datasets, by time step only
+ * and by time step and Y-row band.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetSplitsBenchmark {
+
+    @Param({"test-resources/akw-htsgwsfc-2014-01-14T00.nc", "synthetic:720x361x8:0.3"})
+    public String url;
+
+    @Param({"4"})
+    public int datasets;
+
+    @Param({"0", "32"})
+    public int rows;
+
+    private JobConf job;
+    private GridDatasetInputFormat inputFormat;
+
+    @Setup
+    public void setUp() throws IOException {
+        job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(new File("target/bench-catalog"));
+        String path = SyntheticDataset.resolve(url);
+        for (int n = 0; n < datasets; ++n)
+            configuration.configure("bench-" + n, path);
+        configuration.setSplitRows(rows);
+        inputFormat = new GridDatasetInputFormat();
+    }
+
+    @Benchmark
+    public InputSplit[] getSplits() throws IOException {
+        return inputFormat.getSplits(job, -1);
+    }
+
+}
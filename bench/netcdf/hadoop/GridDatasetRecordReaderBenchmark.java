@@ -0,0 +1,65 @@
+package netcdf.hadoop;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import netcdf.bench.SyntheticDataset;
+import netcdf.cascading.TupleWrapper;
+import netcdf.hadoop.GridDatasetInputFormat.GridDatasetRecordReader;
+
+/**
+ * Reads a whole split with and without tuple reuse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GridDatasetRecordReaderBenchmark {
+
+    @Param({"test-resources/akw-htsgwsfc-2014-01-14T00.nc", "synthetic:720x361x8:0.3"})
+    public String url;
+
+    @Param({"false", "true"})
+    public boolean reuse;
+
+    private JobConf job;
+    private InputSplit split;
+    private GridDatasetInputFormat inputFormat;
+
+    @Setup
+    public void setUp() throws IOException {
+        job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.configure("bench", SyntheticDataset.resolve(url));
+        configuration.setReuseTuples(reuse);
+        inputFormat = new GridDatasetInputFormat();
+        split = inputFormat.getSplits(job, -1)[0];
+    }
+
+    @Benchmark
+    public long next(Blackhole blackhole) throws IOException {
+        GridDatasetRecordReader reader = (GridDatasetRecordReader) inputFormat.getRecordReader(split, job, null);
+        try {
+            NullWritable key = reader.createKey();
+            TupleWrapper value = reader.createValue();
+            while (reader.next(key, value))
+                blackhole.consume(value.tuple);
+            return reader.getPos();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
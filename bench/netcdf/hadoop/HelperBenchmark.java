@@ -0,0 +1,71 @@
+package netcdf.hadoop;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serializes and deserializes the datatypes and timestamps stored in
+ * the job configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HelperBenchmark {
+
+    @Param({"10"})
+    public int datasets;
+
+    @Param({"61"})
+    public int timestamps;
+
+    private String[][] datatypes;
+    private String datatypesString;
+    private DateTime[][] times;
+    private String timesString;
+
+    @Setup
+    public void setUp() {
+        datatypes = new String[datasets][];
+        times = new DateTime[datasets][];
+        DateTime start = new DateTime(2014, 1, 14, 0, 0, DateTimeZone.UTC);
+        for (int n = 0; n < datasets; ++n) {
+            datatypes[n] = new String[]{"htsgwsfc", "perpwsfc", "dirpwsfc", "ugrdsfc", "vgrdsfc"};
+            times[n] = new DateTime[timestamps];
+            for (int t = 0; t < timestamps; ++t)
+                times[n][t] = start.plusHours(3 * t);
+        }
+        datatypesString = Helper.join(datatypes);
+        timesString = TimeHelper.join(times);
+    }
+
+    @Benchmark
+    public String joinDatatypes() {
+        return Helper.join(datatypes);
+    }
+
+    @Benchmark
+    public String[][] splitDatatypes() {
+        return Helper.split(datatypesString);
+    }
+
+    @Benchmark
+    public String joinTimestamps() {
+        return TimeHelper.join(times);
+    }
+
+    @Benchmark
+    public DateTime[][] splitTimestamps() {
+        return TimeHelper.split(timesString);
+    }
+
+}
@@ -15,7 +15,13 @@
                  [org.clojure/data.zip "1.0.0"]
                  [org.clojure/tools.logging "1.1.0"]]
   :plugins [[lein-junit "1.1.9"]]
-  :profiles {:dev {:dependencies [[ch.qos.logback/logback-classic "1.2.3"]
+  :aliases {"bench" ["with-profile" "+bench" "run" "-m" "org.openjdk.jmh.Main"
+                     "-rf" "json" "-rff" "target/jmh-result.json"]}
+  :profiles {:bench {:dependencies [[org.openjdk.jmh/jmh-core "1.26"]
+                                    [org.openjdk.jmh/jmh-generator-annprocess "1.26"]]
+                     :java-source-paths ["bench"]
+                     :resource-paths ["test-resources"]}
+             :dev {:dependencies [[ch.qos.logback/logback-classic "1.2.3"]
                                   [ch.qos.logback/logback-core "1.2.3"]
                                   [junit "4.13.1"]]
                    :java-source-paths ["test"]
@@ -1,5 +1,8 @@
 package netcdf.cascading;
 
+import netcdf.hadoop.GridCell;
+import netcdf.hadoop.GridCellSerialization;
+import netcdf.hadoop.GridDatasetConfiguration;
 import netcdf.hadoop.GridDatasetInputFormat;
 import cascading.flow.FlowProcess;
 import cascading.scheme.Scheme;
@@ -9,27 +12,54 @@ import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
+import cascading.tuple.hadoop.TupleSerializationProps;
 import java.io.IOException;
+import java.util.Map;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.util.StringUtils;
 import org.joda.time.DateTime;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
 
 @SuppressWarnings("serial")
 public class GridDatasetScheme extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
 
+    /**
+     * The name of the only field of compact tuples.
+     */
+    public static final String CELL = "cell";
+
+    /**
+     * The Cascading serialization token of GridCell.
+     */
+    public static final int CELL_TOKEN = 150;
+
     private String model;
     private String url;
     private String[] datatypes;
     private DateTime[] timestamps;
+    private double[] boundingBox;
+    private Double zCoord;
+    private boolean compact;
 
     public GridDatasetScheme(String model, String url, String[] datatypes) {
     	this(model, url, datatypes, null);
     }
 
     public GridDatasetScheme(String model, String url, String[] datatypes, DateTime[] timestamps) {
-        super(new Fields("model", "datatype", "timestamp", "latitude", "longitude", "value", "unit", "width", "height", "x", "y"));
+    	this(model, url, datatypes, timestamps, new Fields(GridDatasetInputFormat.FIELD_NAMES));
+    }
+
+    /**
+     * Make a scheme whose tuples only have the given `fields`, which
+     * must be a subset of GridDatasetInputFormat.FIELD_NAMES.
+     */
+    public GridDatasetScheme(String model, String url, String[] datatypes, DateTime[] timestamps, Fields fields) {
+        super(fields);
+        GridDatasetInputFormat.getFieldIndexes(getFieldNames(fields));
         this.model = model;
         this.url = url;
         this.datatypes = datatypes;
@@ -52,6 +82,62 @@ public class GridDatasetScheme extends Scheme<JobConf, RecordReader, OutputColle
 	return timestamps;
     }
 
+    public LatLonRect getBoundingBox() {
+        if (boundingBox == null)
+            return null;
+        return new LatLonRect(
+            new LatLonPointImpl(boundingBox[0], boundingBox[1]),
+            new LatLonPointImpl(boundingBox[2], boundingBox[3]));
+    }
+
+    /**
+     * Only read the cells inside `boundingBox`.
+     */
+    public void setBoundingBox(LatLonRect boundingBox) {
+        if (boundingBox == null) {
+            this.boundingBox = null;
+        } else {
+            this.boundingBox = new double[]{
+                boundingBox.getLowerLeftPoint().getLatitude(), boundingBox.getLowerLeftPoint().getLongitude(),
+                boundingBox.getUpperRightPoint().getLatitude(), boundingBox.getUpperRightPoint().getLongitude()};
+        }
+    }
+
+    public Double getZCoord() {
+        return zCoord;
+    }
+
+    /**
+     * Only read the level at `zCoord` of grids with a vertical axis.
+     */
+    public void setZCoord(Double zCoord) {
+        this.zCoord = zCoord;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Emit tuples made of a single GridCell field named "cell" instead
+     * of a field per value. GridCells are serialized by
+     * GridCellSerialization, which writes much fewer bytes per record
+     * than a generic tuple. Flows that group, join or sink cells have
+     * to register it with addCellSerialization.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+        if (compact)
+            setSourceFields(new Fields(CELL));
+    }
+
+    private static String[] getFieldNames(Fields fields) {
+        String[] names = new String[fields.size()];
+        for (int n = 0; n < names.length; ++n)
+            names[n] = String.valueOf(fields.get(n));
+        return names;
+    }
+
     @Override
     public boolean source(FlowProcess<JobConf> flowProcess, SourceCall<Object[], RecordReader> sourceCall) throws IOException {
 	Object key = sourceCall.getContext()[0];
@@ -67,6 +153,41 @@ public class GridDatasetScheme extends Scheme<JobConf, RecordReader, OutputColle
         // a hack for MultiInputFormat to see that there is a child format
         FileInputFormat.setInputPaths(conf, url);
         GridDatasetInputFormat.setInput(conf, model, url, datatypes, timestamps);
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(conf);
+        if (compact) {
+            configuration.setCompact(true);
+            registerCellSerialization(conf);
+        } else {
+            configuration.setFields(getFieldNames(getSourceFields()));
+        }
+        if (boundingBox != null)
+            configuration.setBoundingBox(getBoundingBox());
+        if (zCoord != null)
+            configuration.setZCoord(zCoord);
+    }
+
+    /**
+     * Register GridCellSerialization and the GridCell token in the flow
+     * `properties`, so every step of the flow can serialize GridCells,
+     * not only the one reading them. The strings in `dictionary`, like
+     * models, datatypes and units, are encoded as an index, all others
+     * inline.
+     */
+    public static void addCellSerialization(Map<Object, Object> properties, String... dictionary) {
+        TupleSerializationProps.addSerialization(properties, GridCellSerialization.class.getName());
+        TupleSerializationProps.addSerializationToken(properties, CELL_TOKEN, GridCell.class.getName());
+        if (dictionary.length > 0)
+            properties.put(GridDatasetConfiguration.CELL_DICTIONARY, StringUtils.arrayToString(dictionary));
+    }
+
+    private static void registerCellSerialization(JobConf conf) {
+        GridCellSerialization.register(conf);
+        String token = CELL_TOKEN + "=" + GridCell.class.getName();
+        String tokens = conf.get(TupleSerializationProps.SERIALIZATION_TOKENS);
+        if (tokens == null)
+            conf.set(TupleSerializationProps.SERIALIZATION_TOKENS, token);
+        else if (!tokens.contains(GridCell.class.getName()))
+            conf.set(TupleSerializationProps.SERIALIZATION_TOKENS, tokens + "," + token);
     }
 
     @Override
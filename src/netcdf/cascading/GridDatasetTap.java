@@ -3,6 +3,7 @@ package netcdf.cascading;
 import cascading.tap.hadoop.io.HadoopTupleEntrySchemeIterator;
 import cascading.flow.FlowProcess;
 import cascading.tap.Tap;
+import cascading.tuple.Fields;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
 import java.io.IOException;
@@ -24,8 +25,16 @@ public class GridDatasetTap extends Tap<JobConf, RecordReader, OutputCollector>
     }
 
     public GridDatasetTap(String model, String url, String[] datatypes, DateTime[] timestamps) {
-	this.scheme = new GridDatasetScheme(model, url, datatypes, timestamps);
-        this.url = url;
+	this(new GridDatasetScheme(model, url, datatypes, timestamps));
+    }
+
+    public GridDatasetTap(String model, String url, String[] datatypes, DateTime[] timestamps, Fields fields) {
+	this(new GridDatasetScheme(model, url, datatypes, timestamps, fields));
+    }
+
+    public GridDatasetTap(GridDatasetScheme scheme) {
+	this.scheme = scheme;
+        this.url = scheme.getUrl();
         setScheme(scheme);
     }
 
@@ -1,11 +1,40 @@
 (ns netcdf.cascalog.dataset
-  (:require [clj-time.coerce :refer [to-date-time]])
-  (:import netcdf.cascading.GridDatasetTap
+  (:require [clj-time.coerce :refer [to-date-time]]
+            [netcdf.bounding-box :refer [to-bounding-box]])
+  (:import cascading.tuple.Fields
+           [netcdf.cascading GridDatasetScheme GridDatasetTap]
+           netcdf.hadoop.GridDatasetInputFormat
            org.joda.time.DateTime))
 
-(defn dataset [model url datatypes timestamps]
-  (GridDatasetTap.
-   (name model)
-   (str url)
-   (into-array String datatypes)
-   (into-array DateTime (map to-date-time timestamps))))
+(defn dataset
+  "Returns a tap of the grid dataset at `url`. Reading can be
+  restricted to the cells inside `bounding-box`, the level at
+  `z-coord` and tuples made of `fields` only. With `compact` tuples
+  are made of a single GridCell field, which is serialized in a
+  compact binary form, see compact-job-conf."
+  [model url datatypes timestamps & {:keys [bounding-box compact fields z-coord]}]
+  (let [scheme (GridDatasetScheme.
+                (name model)
+                (str url)
+                (into-array String datatypes)
+                (into-array DateTime (map to-date-time timestamps))
+                (if fields
+                  (Fields. (into-array Comparable (map name fields)))
+                  (Fields. (into-array Comparable GridDatasetInputFormat/FIELD_NAMES))))]
+    (when bounding-box
+      (.setBoundingBox scheme (to-bounding-box bounding-box)))
+    (when z-coord
+      (.setZCoord scheme (double z-coord)))
+    (when compact
+      (.setCompact scheme true))
+    (GridDatasetTap. scheme)))
+
+(defn compact-job-conf
+  "Returns the job conf that registers the serialization of GridCells
+  for all steps of a query over compact datasets, to be used with
+  `with-job-conf`. The strings in `dictionary`, like models,
+  datatypes and units, are serialized as an index."
+  [& dictionary]
+  (let [properties (java.util.HashMap.)]
+    (GridDatasetScheme/addCellSerialization properties (into-array String (map name dictionary)))
+    (into {} properties)))
@@ -1,5 +1,6 @@
 (ns netcdf.coord-system
-  (:import ucar.nc2.dt.GridCoordSystem)
+  (:import netcdf.grid.LatLonIndex
+           ucar.nc2.dt.GridCoordSystem)
   (:use netcdf.location
         netcdf.resolution))
 
@@ -42,9 +43,32 @@
   [^GridCoordSystem coord-system] (.getProjection coord-system))
 
 (defn x-y-index
-  "Find the x and y indexes of the location."
+  "Find the x and y indexes of the location. Curvilinear grids of at
+  least 3 x 3 cells are searched with the cached LatLonIndex of the
+  coordinate system."
   [^GridCoordSystem coord-system location]
-  (vec (. coord-system findXYindexFromLatLon (latitude location) (longitude location) nil)))
+  (if (LatLonIndex/isIndexed coord-system)
+    (vec (.findXY (LatLonIndex/of coord-system) (latitude location) (longitude location)))
+    (vec (. coord-system findXYindexFromLatLon (latitude location) (longitude location) nil))))
+
+(defn x-y-indexes
+  "Find the x and y indexes of all locations, nil for nil locations."
+  [^GridCoordSystem coord-system locations]
+  (if (LatLonIndex/isIndexed coord-system)
+    (let [^LatLonIndex index (LatLonIndex/of coord-system)
+          width (.getWidth index)
+          located (remove nil? locations)
+          cells (.findCells index
+                            (double-array (map latitude located))
+                            (double-array (map longitude located)))]
+      (first
+       (reduce (fn [[indexes n] location]
+                 (if location
+                   (let [cell (aget cells n)]
+                     [(conj indexes (if (neg? cell) [-1 -1] [(rem cell width) (quot cell width)])) (inc n)])
+                   [(conj indexes nil) n]))
+               [[] 0] locations)))
+    (mapv #(if % (x-y-index coord-system %)) locations)))
 
 (defn location-on-grid
   "Returns the nearset location on the grid."
@@ -1,9 +1,11 @@
 (ns netcdf.dataset
   (:import java.io.File
-           [ucar.nc2 FileWriter NetcdfFile]
+           [java.util.concurrent ArrayBlockingQueue ExecutorCompletionService Executors]
+           [ucar.nc2 Dimension FileWriter NetcdfFile NetcdfFileWriter NetcdfFileWriter$Version Variable]
            ucar.nc2.dataset.NetcdfDataset
            [ucar.nc2.dt.grid GridAsPointDataset GridDataset]
-           ucar.nc2.geotiff.GeoTiffWriter2)
+           ucar.nc2.geotiff.GeoTiffWriter2
+           netcdf.grid.GridDatasetCache)
   (:require [clj-time.coerce :refer [to-date-time]]
             [clj-time.core :refer [year month day hour]]
             [clj-time.format :refer [formatters unparse]]
@@ -11,7 +13,7 @@
             [clojure.tools.logging :refer [debugf]]
             [netcdf.geo-grid :as geogrid]
             netcdf.time
-            [netcdf.utils :refer [save-md5-checksum valid-md5-checksum? with-out-writer]]))
+            [netcdf.utils :refer [file-exists? save-md5-checksum valid-md5-checksum? with-out-writer]]))
 
 (defn- write-dimensions [^NetcdfDataset dataset ^FileWriter writer]
   (doseq [dimension (.getDimensions dataset)]
@@ -58,28 +60,143 @@
   "Open the NetCDF dataset as a grid dataset."
   [uri] (. GridDataset open (str uri)))
 
+(defn acquire-grid-dataset
+  "Acquire the grid dataset at uri from the shared dataset cache."
+  [uri] (.acquire (GridDatasetCache/getInstance) (str uri)))
+
+(defn release-grid-dataset
+  "Release a grid dataset acquired from the shared dataset cache."
+  [^GridDataset dataset] (.release (GridDatasetCache/getInstance) dataset))
+
+(defmacro with-cached-grid-dataset
+  "Evaluate body with symbol bound to the cached grid dataset at uri.
+  The dataset is shared with other threads, the read functions of
+  netcdf.geo-grid hold its read lock, other reads have to lock on
+  GridDatasetCache/lock of the grid themselves."
+  [[symbol uri] & body]
+  `(let [~symbol (acquire-grid-dataset ~uri)]
+     (try ~@body (finally (release-grid-dataset ~symbol)))))
+
 (defn valid-times
   "Returns the valid times in the NetCDF dataset."
   [^GridDataset dataset]
   (map to-date-time (sort (.getDates (GridAsPointDataset. (.getGrids dataset))))))
 
+(defn- copied-variables
+  "Returns the variables of dataset copied for variables, the
+  coordinate variables of all dimensions and the named variables."
+  [^NetcdfDataset dataset variables]
+  (->> (concat (map #(.findVariable dataset (.getName %)) (.getDimensions dataset))
+               (map #(.findVariable dataset (str %)) variables))
+       (remove nil?)
+       (distinct)))
+
+(defn- progress-filename [target]
+  (str target ".progress"))
+
+(defn- read-progress
+  "Returns the set of chunks of target that have been written."
+  [target]
+  (let [file (io/file (progress-filename target))]
+    (if (.exists file)
+      (with-open [reader (io/reader file)]
+        (set (doall (line-seq reader))))
+      #{})))
+
+(defn- save-progress [target chunk]
+  (spit (progress-filename target) (str chunk "\n") :append true))
+
+(defn copy-complete?
+  "Returns true if target is a complete copy, with a valid checksum
+  and no progress file of an interrupted chunked copy, otherwise
+  false."
+  [target]
+  (and (valid-md5-checksum? target)
+       (not (file-exists? (progress-filename target)))))
+
+(defn- create-writer
+  "Create the NetCDF file at target with the structure of variables
+  in dataset, without any data."
+  [^NetcdfDataset dataset target variables]
+  (io/make-parents (io/file target))
+  (let [writer (NetcdfFileWriter/createNew NetcdfFileWriter$Version/netcdf3 (str target))]
+    (doseq [attribute (.getGlobalAttributes dataset)]
+      (.addGroupAttribute writer nil attribute))
+    (doseq [^Dimension dimension (.getDimensions dataset)]
+      (.addDimension writer nil (.getShortName dimension)
+                     (int (if (.isUnlimited dimension) 0 (.getLength dimension)))
+                     (.isUnlimited dimension) (.isVariableLength dimension)))
+    (doseq [^Variable variable variables]
+      (let [target (.addVariable writer nil (.getShortName variable) (.getDataType variable) (.getDimensionsString variable))]
+        (doseq [attribute (.getAttributes variable)]
+          (.addVariableAttribute writer target attribute))))
+    (.create writer)
+    writer))
+
+(defn- write-chunks
+  "Copy variable in chunks of chunk-size indexes along its first
+  dimension, skipping the chunks in done and recording each written
+  chunk in the progress file of target."
+  [^NetcdfFileWriter writer ^Variable variable chunk-size done target]
+  (let [output (.findVariable writer (.getFullNameEscaped variable))
+        shape (.getShape variable)
+        rank (alength shape)
+        length (if (zero? rank) 1 (aget shape 0))]
+    (doseq [start (range 0 length chunk-size)
+            :let [chunk (str (.getShortName variable) ":" start)]
+            :when (not (contains? done chunk))]
+      (let [origin (int-array rank)
+            size (aclone shape)]
+        (when (pos? rank)
+          (aset origin 0 (int start))
+          (aset size 0 (int (min chunk-size (- length start)))))
+        (.write writer output origin (.read variable origin size))
+        (.flush writer)
+        (save-progress target chunk)))))
+
+(defn- copy-chunked
+  "Copy variables from source to target chunk by chunk, resuming an
+  interrupted copy from its last written chunk."
+  [source target variables chunk-size]
+  (with-open [dataset (open-dataset (str source))]
+    (let [target (if (instance? java.net.URI target) (.getPath ^java.net.URI target) (str target))
+          variables (copied-variables dataset variables)
+          done (if (file-exists? target) (read-progress target) #{})
+          writer (if (empty? done)
+                   (create-writer dataset target variables)
+                   (NetcdfFileWriter/openExisting (str target)))]
+      (when-not (empty? done)
+        (debugf "Resuming copy of %s to %s after %d chunks." source target (count done)))
+      (try
+        (doseq [variable variables]
+          (write-chunks writer variable chunk-size done target))
+        (finally (.close writer)))
+      (io/delete-file (progress-filename target) true))))
+
 (defn copy-dataset
-  "Copy the NetCDF dataset from source to target."
+  "Copy the NetCDF dataset from source to target. With chunk-size
+  variables are streamed in sections of chunk-size time steps, the
+  copy only holds one section in memory and resumes from the last
+  written section if it was interrupted."
   ([source target]
-   (with-open [dataset (open-grid-dataset source)]
-     (copy-dataset source target (datatype-names dataset))))
-  ([source target variables]
+   (copy-dataset source target (with-cached-grid-dataset [dataset source]
+                                 (doall (datatype-names dataset)))))
+  ([source target variables & {:keys [chunk-size]}]
    (try
      (when-not (valid-md5-checksum? target)
-       (with-open [dataset (open-dataset (str source))]
-         (with-file-writer writer target
-           (write-global-attributes dataset writer)
-           (write-dimensions dataset writer)
-           (write-variables dataset writer variables)))
+       (if chunk-size
+         (copy-chunked source target variables chunk-size)
+         (with-open [dataset (open-dataset (str source))]
+           (with-file-writer writer target
+             (write-global-attributes dataset writer)
+             (write-dimensions dataset writer)
+             (write-variables dataset writer variables))))
        (save-md5-checksum target))
      target
      (catch Exception e
-       (io/delete-file target true)
+       ;; keep a partial chunked copy to resume from
+       (when-not chunk-size
+         (io/delete-file target true))
        (throw e)))))
 
 (defmacro with-dataset [[name uri] & body]
@@ -108,26 +225,78 @@
   (format "%s/%4d/%02d/%02d/%02d.tif"
           variable (year time) (month time) (day time) (hour time)))
 
-(defn write-geotiff
-  "Write the `variable` at `time` in `dataset` as a GeoTiff image to
-  `filename`."
-  [^GridDataset dataset variable time filename & [grey-scale]]
+(defn- write-geotiff-data
+  "Write the `data` of `variable` at `time` as a GeoTIFF image to
+  `filename`, using `dataset` for the geo reference."
+  [^GridDataset dataset variable time filename data grey-scale]
+  (io/make-parents filename)
+  (debugf "Writing %s GeoTIFF at %s to %s." variable time filename)
+  (with-open [writer (GeoTiffWriter2. (str filename))]
+    (.writeGrid writer dataset (find-geo-grid dataset variable) data (boolean grey-scale)))
+  (save-md5-checksum filename)
+  filename)
+
+(defn- read-geotiff-data
+  "Read the volume data of `variable` at `time` in `dataset`."
+  [^GridDataset dataset variable time]
   (let [grid (find-geo-grid dataset variable)
         index (geogrid/time-index grid time)]
     (assert grid (format "Couldn't find geo grid %s." variable))
     (assert index (format "Couldn't find time index for %s." time))
-    (io/make-parents filename)
-    (debugf "Writing %s GeoTIFF at %s to %s." variable time filename)
-    (with-open [writer (GeoTiffWriter2. (str filename))]
-      (let [data (.readVolumeData grid index)]
-        (.writeGrid writer dataset grid data (boolean grey-scale))))
-    (save-md5-checksum filename)
-    filename))
+    (.readVolumeData grid index)))
+
+(defn write-geotiff
+  "Write the `variable` at `time` in `dataset` as a GeoTiff image to
+  `filename`."
+  [^GridDataset dataset variable time filename & [grey-scale]]
+  (let [data (read-geotiff-data dataset variable time)]
+    (write-geotiff-data dataset variable time filename data grey-scale)))
+
+(defn- write-geotiffs-parallel
+  "Write the GeoTIFF images of `tasks` on `workers` threads. A single
+  reader thread stays up to `read-ahead` slices ahead of the writers.
+  Every thread opens its own copy of `dataset`, since datasets can't
+  be read concurrently. Returns the filenames in the order of tasks."
+  [^GridDataset dataset tasks grey-scale workers read-ahead]
+  (let [location (.getLocation dataset)
+        queue (ArrayBlockingQueue. (int (max 1 read-ahead)))
+        results (object-array (count tasks))
+        executor (Executors/newFixedThreadPool (inc workers))
+        completion (ExecutorCompletionService. executor)]
+    (try
+      (.submit completion
+               ^Callable
+               (fn []
+                 (with-open [source (open-grid-dataset location)]
+                   (doseq [[n [variable time filename]] (map-indexed vector tasks)]
+                     (.put queue [n variable time filename (read-geotiff-data source variable time)])))
+                 (dotimes [_ workers] (.put queue ::done))))
+      (dotimes [_ workers]
+        (.submit completion
+                 ^Callable
+                 (fn []
+                   (with-open [target (open-grid-dataset location)]
+                     (loop []
+                       (let [item (.take queue)]
+                         (when-not (= ::done item)
+                           (let [[n variable time filename data] item]
+                             (aset results n (write-geotiff-data target variable time filename data grey-scale))
+                             (recur)))))))))
+      (dotimes [_ (inc workers)]
+        (.get (.take completion)))
+      (vec results)
+      (finally (.shutdownNow executor)))))
 
 (defn write-geotiffs
-  "Write the `variables of `dataset` to `directory`."
-  [^GridDataset dataset variables directory & [grey-scale]]
+  "Write the `variables of `dataset` to `directory`. With more than
+  one of `workers` the images are written in parallel, with a reader
+  thread reading `read-ahead` time slices ahead of the writers. The
+  filenames are returned in the same order in both modes."
+  [^GridDataset dataset variables directory & [grey-scale & {:keys [workers read-ahead]}]]
   (.mkdirs (io/file directory))
-  (doall (for [variable variables, time (valid-times dataset)
-               :let [file (io/file directory (geotiff-filename variable time))]]
-           (write-geotiff dataset variable time file grey-scale))))
+  (let [tasks (for [variable variables, time (valid-times dataset)]
+                [variable time (io/file directory (geotiff-filename variable time))])]
+    (if (and workers (> workers 1))
+      (write-geotiffs-parallel dataset tasks grey-scale workers (or read-ahead workers))
+      (doall (for [[variable time file] tasks]
+               (write-geotiff dataset variable time file grey-scale))))))
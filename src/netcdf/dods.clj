@@ -1,21 +1,26 @@
 (ns netcdf.dods
   (:refer-clojure :exclude (replace))
-  (:import java.util.Calendar java.io.File java.io.File java.net.URI)
+  (:import java.util.Calendar java.io.File java.io.File java.net.URI
+           [java.net HttpURLConnection URL]
+           [javax.xml.stream XMLInputFactory XMLStreamConstants XMLStreamReader])
   (:require [clojure.core.memoize :refer [ttl]]
+            [clojure.java.io :as io]
             [clojure.string :as str]
-            [clojure.xml :as xml]
-            [clojure.zip :as zip]
+            [digest :refer [digest]]
             [netcdf.dataset :as dataset])
   (:use [clj-time.coerce :only (to-date-time)]
         [clj-time.core :only (after? date-time day hour month year now )]
         clj-time.format
-        [clojure.data.zip.xml :only (xml-> text)]
         [clojure.string :only (join replace)]
         clojure.tools.logging
         netcdf.utils))
 
-(defn- feed-to-zip [uri]
-  (zip/xml-zip (xml/parse uri)))
+(def ^:dynamic *inventory-cache*
+  (str (System/getenv "HOME") File/separator ".netcdf" File/separator "inventory"))
+
+(def ^:dynamic *inventory-ttl*
+  ;; Refresh cached inventories after 15 minutes.
+  (* 15 60 1000))
 
 (defn inventory-url
   "Returns the url of the xml inventory."
@@ -36,16 +41,120 @@
   [url]
   (some-> url (str/replace #"http://nomads.ncep.noaa.gov:\d+" "https://nomads.ncep.noaa.gov")))
 
-(defn parse-inventory* [url]
+(defn- remote-url? [url]
+  (boolean (re-matches #"(?i)https?://.*" (str url))))
+
+(defn- inventory-cache-file [url]
+  (io/file *inventory-cache* (str (digest "md5" (str url)) ".xml")))
+
+(defn- read-validators [^File file]
+  (let [file (io/file (str file ".headers"))]
+    (if (.exists file)
+      (let [[etag last-modified] (str/split-lines (slurp file))]
+        {:etag (not-empty etag) :last-modified (not-empty last-modified)}))))
+
+(defn refresh-inventory
+  "Download the inventory at url into its cache file, sending the
+  validators of the cached copy so an unchanged inventory is not
+  transferred again. Returns the cache file."
+  [url]
+  (let [file (inventory-cache-file url)
+        {:keys [etag last-modified]} (if (.exists file) (read-validators file))
+        ^HttpURLConnection connection (.openConnection (URL. (str url)))]
+    (try
+      (when etag (.setRequestProperty connection "If-None-Match" etag))
+      (when last-modified (.setRequestProperty connection "If-Modified-Since" last-modified))
+      (let [status (.getResponseCode connection)]
+        (cond
+          (= status HttpURLConnection/HTTP_NOT_MODIFIED)
+          (do (debug (str "DODS inventory " url " not modified."))
+              (.setLastModified file (System/currentTimeMillis)))
+          (= status HttpURLConnection/HTTP_OK)
+          (let [temp (io/file (str file ".tmp"))]
+            (io/make-parents file)
+            (with-open [in (.getInputStream connection)]
+              (io/copy in temp))
+            (spit (str file ".headers")
+                  (str (.getHeaderField connection "ETag") "\n"
+                       (.getHeaderField connection "Last-Modified") "\n"))
+            (when-not (.renameTo temp file)
+              (io/delete-file file true)
+              (.renameTo temp file)))
+          :else
+          (throw (java.io.IOException. (str "Can't fetch DODS inventory " url ": HTTP " status)))))
+      file
+      (finally (.disconnect connection)))))
+
+(def ^:private refreshing (atom #{}))
+
+(defn- refresh-in-background [url]
+  (when-not (contains? (first (swap-vals! refreshing conj url)) url)
+    (future
+      (try (refresh-inventory url)
+           (catch Exception e (warn e (str "Can't refresh DODS inventory " url ".")))
+           (finally (swap! refreshing disj url))))))
+
+(defn inventory-file
+  "Returns the local file of the inventory at url. Remote inventories
+  are cached on disk, a stale copy is returned while it is refreshed
+  in the background."
+  [url]
+  (if-not (remote-url? url)
+    (io/file (str url))
+    (let [file (inventory-cache-file url)]
+      (cond
+        (not (.exists file))
+        (refresh-inventory url)
+        (> (- (System/currentTimeMillis) (.lastModified file)) *inventory-ttl*)
+        (do (refresh-in-background url) file)
+        :else file))))
+
+(defn- read-dataset
+  "Read the children of the dataset element reader is positioned at."
+  [^XMLStreamReader reader]
+  (loop [dataset {}]
+    (let [event (.next reader)]
+      (cond
+        (= event XMLStreamConstants/START_ELEMENT)
+        (let [name (keyword (.getLocalName reader))]
+          (recur (if (contains? #{:name :description :das :dds :dods} name)
+                   (assoc dataset name (.getElementText reader))
+                   dataset)))
+        (and (= event XMLStreamConstants/END_ELEMENT)
+             (= "dataset" (.getLocalName reader)))
+        dataset
+        :else (recur dataset)))))
+
+(defn parse-inventory*
+  "Parse the DODS inventory at url. Datasets whose DODS url doesn't
+  start with prefix or match pattern are dropped while reading."
+  [url & {:keys [prefix pattern]}]
   (debug (str "Parsing DODS inventory " url " ..."))
-  (let [extract (fn [node selector] (first (xml-> node selector text)))]
-    (for [dataset (xml-> (feed-to-zip (inventory-url url)) :dataset)]
-      {:name (extract dataset :name)
-       :description (extract dataset :description)
-       :das (rewrite-https (extract dataset :das))
-       :dds (rewrite-https (extract dataset :dds))
-       :dods (rewrite-https (extract dataset :dods))
-       :reference-time (parse-reference-time (extract dataset :dods))})))
+  (let [pattern (if pattern (re-pattern pattern))
+        keep? #(and (or (nil? prefix) (and % (.startsWith ^String % prefix)))
+                    (or (nil? pattern) (and % (re-matches pattern %))))]
+    (with-open [in (io/input-stream (inventory-file (inventory-url url)))]
+      (let [reader (.createXMLStreamReader (XMLInputFactory/newInstance) in)]
+        (try
+          (loop [datasets (transient [])]
+            (cond
+              (not (.hasNext reader))
+              (persistent! datasets)
+              (and (= (.next reader) XMLStreamConstants/START_ELEMENT)
+                   (= "dataset" (.getLocalName reader)))
+              (let [dataset (read-dataset reader)
+                    dods (rewrite-https (:dods dataset))]
+                (recur (if (keep? dods)
+                         (conj! datasets
+                                {:name (:name dataset)
+                                 :description (:description dataset)
+                                 :das (rewrite-https (:das dataset))
+                                 :dds (rewrite-https (:dds dataset))
+                                 :dods dods
+                                 :reference-time (parse-reference-time (:dods dataset))})
+                         datasets)))
+              :else (recur datasets)))
+          (finally (.close reader)))))))
 
 (def parse-inventory
   ;; Cache inventories for 15 minutes.
@@ -67,7 +176,7 @@
     (->> (filter #(and (:dods %)
                        (.startsWith (:dods %) url)
                        (re-matches pattern (:dods %)))
-                 (parse-inventory (inventory-url url)))
+                 (parse-inventory (inventory-url url) :prefix url :pattern (str pattern)))
          (sort-by :reference-time))))
 
 (defn datasource
@@ -0,0 +1,91 @@
+(ns netcdf.download
+  (:import [java.util.concurrent Executors ExecutorService Semaphore])
+  (:require [clj-time.core :refer [now interval in-millis]]
+            [clojure.tools.logging :refer [infof warnf]]
+            [netcdf.utils :refer [human-duration human-transfer-rate]]
+            [netcdf.variable :refer [download-variable]]))
+
+(defn model-host
+  "Returns the host the datasets of model are downloaded from."
+  [model]
+  (or (try (.getHost (java.net.URI. (str (:dods model))))
+           (catch Exception _ nil))
+      "localhost"))
+
+(defn backoff-millis
+  "Returns the milliseconds to wait before retrying a download for the
+  nth time, doubling backoff on every attempt up to max-backoff."
+  [n backoff max-backoff]
+  (min max-backoff (* backoff (bit-shift-left 1 (min 30 (dec n))))))
+
+(defn- download-with-retries
+  "Download variable of model, retrying failed downloads. A permit of
+  semaphore is held during each attempt, but not while waiting to
+  retry, so other downloads from the same host can go on."
+  [model variable ^Semaphore semaphore {:keys [reference-time root-dir retries backoff max-backoff]}]
+  (let [start-time (now)]
+    (loop [attempt 1]
+      (let [result (do (.acquire semaphore)
+                       (try {:value (download-variable model variable :reference-time reference-time :root-dir root-dir)}
+                            (catch Exception e {:error e})
+                            (finally (.release semaphore))))]
+        (cond
+         (not (:error result))
+         (assoc (:value result) :model (:name model) :attempts attempt)
+         (> attempt retries)
+         (do (warnf "Giving up on %s of %s after %d attempts: %s"
+                    (:name variable) (:name model) attempt (.getMessage ^Exception (:error result)))
+             {:name (:name variable)
+              :model (:name model)
+              :attempts attempt
+              :error (:error result)
+              :interval (interval start-time (now))})
+         :else
+         (let [wait (backoff-millis attempt backoff max-backoff)]
+           (warnf "Download of %s of %s failed, retrying in %d ms: %s"
+                  (:name variable) (:name model) wait (.getMessage ^Exception (:error result)))
+           (Thread/sleep wait)
+           (recur (inc attempt))))))))
+
+(defn download-report
+  "Returns the aggregate report of download results."
+  [results interval]
+  (let [succeeded (remove :error results)
+        size (reduce + (keep :size succeeded))]
+    {:results results
+     :succeeded (count succeeded)
+     :failed (count (filter :error results))
+     :size size
+     :interval interval
+     :duration (human-duration interval)
+     :transfer-rate (human-transfer-rate size interval)
+     :millis (reduce + (map #(in-millis (:interval %)) (filter :interval results)))}))
+
+(defn download-variables
+  "Download the variables of all models concurrently and return a
+  report. At most workers downloads run at the same time and at most
+  per-host of them against the same host. Failed downloads are retried
+  up to retries times with an exponential backoff."
+  [models variables & {:keys [reference-time root-dir workers per-host retries backoff max-backoff]
+                       :or {workers 8 per-host 2 retries 3 backoff 1000 max-backoff 60000}}]
+  (let [start-time (now)
+        tasks (for [model models variable variables] [model variable])
+        semaphores (into {} (for [host (distinct (map (comp model-host first) tasks))]
+                              [host (Semaphore. per-host true)]))
+        options {:reference-time reference-time :root-dir root-dir
+                 :retries retries :backoff backoff :max-backoff max-backoff}
+        ^ExecutorService executor (Executors/newFixedThreadPool (max 1 workers))]
+    (try
+      (let [futures (doall
+                     (for [[model variable] tasks]
+                       (.submit executor
+                                ^Callable
+                                (fn []
+                                  (download-with-retries model variable (semaphores (model-host model)) options)))))
+            results (mapv #(.get ^java.util.concurrent.Future %) futures)
+            report (download-report results (interval start-time (now)))]
+        (infof "Downloaded %d of %d variables, %d failed." (:succeeded report) (count results) (:failed report))
+        (infof "  Duration........ %s" (:duration report))
+        (infof "  Transfer Rate... %s" (:transfer-rate report))
+        report)
+      (finally (.shutdown executor)))))
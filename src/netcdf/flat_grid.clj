@@ -0,0 +1,82 @@
+(ns netcdf.flat-grid
+  (:import java.io.File
+           netcdf.grid.FlatGrid)
+  (:require [clj-time.coerce :refer [to-date-time to-long]]
+            [clojure.tools.logging :refer [debugf]]
+            [netcdf.geo-grid :as grid]
+            [netcdf.location :refer [latitude longitude]]))
+
+(defonce ^:private flat-grids (atom {}))
+
+(defn flat-grid-filename
+  "Returns the filename of the flat grid sidecar of the NetCDF dataset
+  at filename."
+  [filename] (str filename ".flat"))
+
+(defn flat-grid-current?
+  "Returns true if the flat grid sidecar of the NetCDF dataset at
+  filename exists and is not older than the dataset, otherwise false."
+  [filename]
+  (let [file (File. (flat-grid-filename filename))]
+    (and (.isFile file)
+         (>= (.lastModified file) (.lastModified (File. (str filename)))))))
+
+(defn write-flat-grid
+  "Write the level at z-coord of variable in the NetCDF dataset at
+  filename to its flat grid sidecar."
+  [filename variable & {:keys [z-coord]}]
+  (let [target (flat-grid-filename filename)]
+    (debugf "Writing flat grid of %s in %s to %s." variable filename target)
+    (grid/with-open-geo-grid [grid filename variable]
+      (FlatGrid/write grid (grid/z-index grid z-coord) (File. target)))
+    target))
+
+(defn open-flat-grid
+  "Returns the mapped flat grid sidecar of the NetCDF dataset at
+  filename, or nil if there is none or it is older than the dataset.
+  Sidecars are mapped once and shared until they change on disk."
+  [filename]
+  (let [file (File. (flat-grid-filename filename))]
+    (when (flat-grid-current? filename)
+      (let [path (.getPath file)
+            modified (.lastModified file)]
+        (let [[cached-modified cached] (get @flat-grids path)]
+          (if (= modified cached-modified)
+            cached
+            (let [flat (FlatGrid/open file)]
+              (when cached (.close ^FlatGrid cached))
+              (swap! flat-grids assoc path [modified flat])
+              flat)))))))
+
+(defn- location-index [^FlatGrid flat location]
+  (if location
+    (let [[x y] (.findXY flat (latitude location) (longitude location))]
+      (if (>= x 0) [x y]))))
+
+(defn read-location
+  "Read the value of variable at location and valid-time from the flat
+  grid sidecar of the NetCDF dataset at filename. Falls back to the
+  NetCDF dataset if there is no sidecar."
+  [filename variable location & {:keys [valid-time]}]
+  (if location
+    (if-let [^FlatGrid flat (open-flat-grid filename)]
+      (let [[x y] (location-index flat location)
+            t (if valid-time (.findTimeIndex flat (to-long valid-time)) 0)]
+        (if (and x (>= t 0))
+          (double (.get flat t x y))
+          Double/NaN))
+      (grid/with-open-geo-grid [grid filename variable]
+        (grid/read-location grid location :valid-time valid-time)))))
+
+(defn read-locations-series
+  "Read the time series at locations from the flat grid sidecar of
+  the NetCDF dataset at filename. Returns a map with the :valid-times
+  of the grid and the :series of the locations as double arrays, nil
+  for locations not on the grid. Returns nil if there is no sidecar."
+  [filename locations]
+  (if-let [^FlatGrid flat (open-flat-grid filename)]
+    {:valid-times (map to-date-time (.getTimes flat))
+     :series (mapv (fn [location]
+                     (if-let [[x y] (location-index flat location)]
+                       (double-array (.getSeries flat x y))))
+                   locations)}))
@@ -1,5 +1,7 @@
 (ns netcdf.geo-grid
-  (:import (ucar.nc2.dt.grid GeoGrid GridDataset)
+  (:import (ucar.ma2 Array Index Range)
+           (ucar.nc2.dt.grid GeoGrid GridDataset)
+           (netcdf.grid GridDatasetCache LatLonTable SliceCache SliceCache$Slice)
            org.joda.time.DateTime
            ucar.nc2.dt.GridCoordSystem)
   (:require [netcdf.bounding-box :as bbox])
@@ -48,8 +50,18 @@
     :resolution (resolution (coord-system grid))))
 
 (defn open-geo-grid
-  "Open a NetCDF GeoGrid."
-  [dataset-uri variable] (. (. GridDataset open (str dataset-uri)) findGridDatatype variable))
+  "Open a NetCDF GeoGrid. The grid gets a dataset of its own, outside
+  of the shared GridDatasetCache, use with-open-geo-grid to read from
+  a cached dataset."
+  [dataset-uri variable]
+  (.findGridDatatype (GridDataset/open (str dataset-uri)) variable))
+
+(defmacro ^:private with-read-lock
+  "Evaluate body holding the read lock of the dataset of grid. Cached
+  datasets are shared between threads, reads must not interleave."
+  [grid & body]
+  `(locking (GridDatasetCache/lock ~grid)
+     ~@body))
 
 (defn time-axis
   "Returns the time axis of the GeoGrid."
@@ -75,39 +87,206 @@
     (. vertical-axis findCoordElement z-coord) 0))
 
 (defn- read-yx-data [^GeoGrid grid ^DateTime valid-time & [z-coord]]
-  (seq (.copyTo1DJavaArray (. grid readYXData (time-index grid valid-time) (z-index grid z-coord)))))
+  (seq (.copyTo1DJavaArray (with-read-lock grid (. grid readYXData (time-index grid valid-time) (z-index grid z-coord))))))
+
+(defn- read-band
+  "Read `rows` rows of the YX plane of the GeoGrid, starting at row `y`."
+  [^GeoGrid grid t-index z-index y rows]
+  (if (and (zero? y) (= rows (.getLength (.getYDimension grid))))
+    (with-read-lock grid (.readYXData grid t-index z-index))
+    (let [^GeoGrid band (.makeSubset grid nil nil nil nil (Range. (int y) (int (+ y rows -1))) nil)]
+      (with-read-lock grid (.readYXData band t-index z-index)))))
 
 (defn read-seq
-  "Read the whole GeoGrid as a sequence."
-  [^GeoGrid grid & {:keys [valid-time z-coord]}]
+  "Read the whole GeoGrid as a sequence. The YX plane is read with a
+  single I/O call, or lazily in bands of `band-rows` rows to bound the
+  memory used for grids that don't fit into the heap."
+  [^GeoGrid grid & {:keys [valid-time z-coord band-rows]}]
   (let [valid-time (or valid-time (first (valid-times grid)))
-        ^GridCoordSystem  coord-system (coord-system grid)
-        ^int t-index (time-index grid valid-time)
-        ^int z-index (z-index grid z-coord)]
+        ^LatLonTable locations (LatLonTable/of (coord-system grid))
+        t-index (time-index grid valid-time)
+        z-index (z-index grid z-coord)
+        width (.getLength (.getXDimension grid))
+        height (.getLength (.getYDimension grid))
+        band-rows (max 1 (min height (or band-rows height)))
+        name (.getName grid)]
     (with-meta
-      (for [^int y-index (range 0 (.getLength (.getYDimension grid)))
-            ^int x-index (range 0 (.getLength (.getXDimension grid)))]
-        {:location (.getLatLon coord-system x-index y-index)
-         :variable (.getName grid)
+      (for [y (range 0 height band-rows)
+            :let [rows (min band-rows (- height y))
+                  ^Array data (read-band grid t-index z-index y rows)
+                  ^Index index (.getIndex data)]
+            n (range (* rows width))
+            :let [y-index (+ y (quot n width))
+                  x-index (rem n width)]]
+        {:location (.getLatLon locations x-index y-index)
+         :variable name
          :valid-time valid-time
-         :value (.getDouble (. grid readDataSlice t-index z-index y-index x-index) 0)})
+         :value (.getDouble data (doto index (.setCurrentCounter (int n))))})
       (assoc (meta-data grid) :valid-time valid-time))))
 
+(def ^:dynamic *slice-cache*
+  "The SliceCache read-index and read-location read slices through, or
+  nil to read every value from the dataset."
+  nil)
+
+(defn- read-cell
+  "Read the value at x, y of the YX slice at t-index and z-index,
+  through *slice-cache* if it's bound."
+  [^GeoGrid grid t-index z-index x y]
+  (let [^SliceCache cache *slice-cache*]
+    (if (and cache
+             (< -1 x (.getLength (.getXDimension grid)))
+             (< -1 y (.getLength (.getYDimension grid))))
+      (.get ^SliceCache$Slice (.get cache grid (int t-index) (int z-index)) (int x) (int y))
+      (.getDouble (with-read-lock grid (. grid readDataSlice t-index z-index y x)) 0))))
+
 (defn read-index [^GeoGrid grid x y & {:keys [valid-time z-coord]}]
   (if (and x y)
     (let [t-index (time-index grid (or valid-time (first (valid-times grid))))
           z-index (z-index grid z-coord)]
-      (.getDouble (. grid readDataSlice t-index z-index y x) 0))))
+      (read-cell grid t-index z-index x y))))
 
 (defn read-location [^GeoGrid grid location & {:keys [valid-time z-coord]}]
   (if location
     (let [t-index (time-index grid (or valid-time (first (valid-times grid))))
           z-index (z-index grid z-coord)
           [x-index y-index] (x-y-index (coord-system grid) location)]
-      (.getDouble (. grid readDataSlice t-index z-index y-index x-index) 0))))
+      (read-cell grid t-index z-index x-index y-index))))
+
+(defn location-indexes
+  "Returns the [x y] grid indexes of `locations`, or nil for locations
+  that are nil or not on the GeoGrid."
+  [^GeoGrid grid locations]
+  (let [coord-system (coord-system grid)
+        width (.getLength (.getXDimension grid))
+        height (.getLength (.getYDimension grid))]
+    (mapv (fn [[x y :as index]]
+            (when (and index (< -1 x width) (< -1 y height))
+              index))
+          (x-y-indexes coord-system locations))))
+
+(defn- read-window
+  "Read the window of the YX plane spanning the x and y index ranges."
+  [^GeoGrid grid t-index z-index x-min x-max y-min y-max]
+  (let [^GeoGrid window (.makeSubset grid nil nil nil nil
+                                     (Range. (int y-min) (int y-max))
+                                     (Range. (int x-min) (int x-max)))]
+    (with-read-lock grid (.readYXData window t-index z-index))))
+
+(defn read-indexes
+  "Read the values at the [x y] grid `indexes`. The window spanning all
+  indexes is read with a single I/O call, nil indexes read as NaN."
+  [^GeoGrid grid indexes & {:keys [valid-time z-coord]}]
+  (let [valid (remove nil? indexes)]
+    (if (empty? valid)
+      (map (constantly Double/NaN) indexes)
+      (let [t-index (time-index grid (or valid-time (first (valid-times grid))))
+            z-index (z-index grid z-coord)
+            x-min (apply min (map first valid))
+            x-max (apply max (map first valid))
+            y-min (apply min (map second valid))
+            y-max (apply max (map second valid))
+            ^Array data (read-window grid t-index z-index x-min x-max y-min y-max)
+            ^Index index (.getIndex data)
+            width (inc (- x-max x-min))]
+        (mapv (fn [[x y]]
+                (if x
+                  (.getDouble data (doto index (.setCurrentCounter (int (+ (* (- y y-min) width) (- x x-min))))))
+                  Double/NaN))
+              indexes)))))
+
+(defn read-locations
+  "Read the values at `locations`. The locations are resolved to grid
+  indexes once and read with a single I/O call. Returns nil for nil
+  locations and NaN for locations that are not on the GeoGrid."
+  [^GeoGrid grid locations & {:keys [valid-time z-coord]}]
+  (map (fn [location value] (when location value))
+       locations
+       (read-indexes grid (location-indexes grid locations)
+                     :valid-time valid-time :z-coord z-coord)))
+
+(defn- array-doubles
+  "Returns the values of the Array as a double array."
+  ^doubles [^Array data]
+  (let [values (double-array (.getSize data))]
+    (dotimes [n (alength values)]
+      (aset values n (.getDouble data (int n))))
+    values))
+
+(defn read-index-series
+  "Read the time series at the grid index x, y with a single I/O call.
+  Returns a double array with a value per valid time, or nil."
+  [^GeoGrid grid x y & {:keys [z-coord]}]
+  (if (and x y)
+    (array-doubles (with-read-lock grid (.readDataSlice grid -1 (z-index grid z-coord) y x)))))
+
+(defn read-location-series
+  "Read the time series at location, see read-index-series. Returns
+  nil for locations that are nil or not on the GeoGrid."
+  [^GeoGrid grid location & {:keys [z-coord]}]
+  (let [[x y] (first (location-indexes grid [location]))]
+    (read-index-series grid x y :z-coord z-coord)))
+
+(def ^:private series-window-factor
+  ;; Read a window spanning all points if it has at most this many
+  ;; cells per point, otherwise read every point on its own.
+  64)
+
+(defn read-indexes-series
+  "Read the time series at the [x y] grid `indexes`. Returns a vector
+  with a double array per index, nil for nil indexes. Indexes close to
+  each other are read with a single I/O call of the window spanning
+  them and all valid times."
+  [^GeoGrid grid indexes & {:keys [z-coord]}]
+  (let [valid (remove nil? indexes)]
+    (if (empty? valid)
+      (mapv (constantly nil) indexes)
+      (let [z-index (z-index grid z-coord)
+            x-min (apply min (map first valid))
+            x-max (apply max (map first valid))
+            y-min (apply min (map second valid))
+            y-max (apply max (map second valid))
+            width (inc (- x-max x-min))
+            height (inc (- y-max y-min))]
+        (if (> (* width height) (* series-window-factor (count valid)))
+          (mapv (fn [[x y]] (read-index-series grid x y :z-coord z-coord)) indexes)
+          (let [^GeoGrid window (.makeSubset grid nil nil nil nil
+                                             (Range. (int y-min) (int y-max))
+                                             (Range. (int x-min) (int x-max)))
+                ^Array data (with-read-lock grid (.readDataSlice window -1 z-index -1 -1))
+                ^Index index (.getIndex data)
+                cells (* width height)
+                times (quot (.getSize data) cells)]
+            (mapv (fn [[x y]]
+                    (when x
+                      (let [offset (+ (* (- y y-min) width) (- x x-min))
+                            values (double-array times)]
+                        (dotimes [t times]
+                          (aset values t (.getDouble data (doto index (.setCurrentCounter (int (+ (* t cells) offset)))))))
+                        values)))
+                  indexes)))))))
+
+(defn read-locations-series
+  "Read the time series at `locations`, see read-indexes-series.
+  Returns nil for locations that are nil or not on the GeoGrid."
+  [^GeoGrid grid locations & {:keys [z-coord]}]
+  (read-indexes-series grid (location-indexes grid locations) :z-coord z-coord))
 
-(defn read-locations [^GeoGrid grid locations & options]
-  (map #(apply read-location grid % options) locations))
+(defn read-grids-series
+  "Read the time series at `locations` of all `grids`, which usually
+  are the grids of a single dataset. Locations are resolved once per
+  coordinate system. Returns a map from grid name to the time series
+  of the locations."
+  [grids locations & {:keys [z-coord]}]
+  (let [indexes (reduce (fn [indexes grid]
+                          (let [coord-system (coord-system grid)]
+                            (if (contains? indexes coord-system)
+                              indexes
+                              (assoc indexes coord-system (location-indexes grid locations)))))
+                        {} grids)]
+    (into {} (for [^GeoGrid grid grids]
+               [(.getName grid)
+                (read-indexes-series grid (indexes (coord-system grid)) :z-coord z-coord)]))))
 
 (defn to-csv
   "Returns a geo grid CSV record."
@@ -122,21 +301,24 @@
 
 (defn dump-grid
   "Dump the geo grid to stdout."
-  [^GeoGrid grid & {:keys [printer valid-time z-coord]}]
-  (let [records (read-seq grid :valid-time valid-time :z-coord z-coord)]
+  [^GeoGrid grid & {:keys [printer valid-time z-coord band-rows]}]
+  (let [records (read-seq grid :valid-time valid-time :z-coord z-coord :band-rows band-rows)]
     (doseq [record records :when (not (nan? (:value record)))]
       ((or printer prn) record))))
 
 (defn write-grid
   "Write the geo grid to filename."
-  [^GeoGrid grid filename & {:keys [printer valid-time z-coord separator]}]
+  [^GeoGrid grid filename & {:keys [printer valid-time z-coord separator band-rows]}]
   (with-out-writer filename
-    (dump-grid grid :printer printer :valid-time valid-time :z-coord z-coord)))
+    (dump-grid grid :printer printer :valid-time valid-time :z-coord z-coord :band-rows band-rows)))
 
 (defmacro with-open-geo-grid [[name uri variable] & body]
-  `(with-open [dataset# (. GridDataset open (str ~uri))]
-     (let [~name (.findGridDatatype dataset# ~variable)]
-       ~@body)))
+  `(let [cache# (GridDatasetCache/getInstance)
+         dataset# (.acquire cache# (str ~uri))]
+     (try
+       (let [~name (.findGridDatatype dataset# ~variable)]
+         ~@body)
+       (finally (.release cache# dataset#)))))
 
 ;; (def htsgwsfc (open-geo-grid "/home/roman/.netcdf/nww3/htsgwsfc/2012/05/28/000000Z.nc" "htsgwsfc"))
 ;; (projection (coord-system htsgwsfc))
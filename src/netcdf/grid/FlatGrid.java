@@ -0,0 +1,298 @@
+package netcdf.grid;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Date;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * A grid stored as a flat file of floats, read through memory mapped
+ * buffers. The file starts with a header describing the grid, followed
+ * by a row-major width * height plane of floats per time step. Missing
+ * values are stored as NaN. The planes are mapped in segments of whole
+ * planes, each smaller than the 2 GB a single buffer can map.
+ *
+ * <pre>
+ * magic "FLATGRID", int version
+ * UTF name, int width, int height, int times, boolean separable
+ * long[times] valid times in milliseconds
+ * double[] latitudes, double[] longitudes, 1D if separable, else 2D
+ * padding up to a multiple of 8 bytes
+ * float[times][height][width] values
+ * </pre>
+ */
+public class FlatGrid implements Closeable {
+
+    static final byte[] MAGIC = "FLATGRID".getBytes();
+    static final int VERSION = 1;
+
+    /**
+     * The largest segment of planes mapped into a single buffer.
+     */
+    static final long SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final int planesPerSegment;
+    private final String name;
+    private final int width;
+    private final int height;
+    private final long[] times;
+    private final LatLonTable table;
+    private LatLonIndex index;
+
+    private FlatGrid(RandomAccessFile file, MappedByteBuffer[] segments, int planesPerSegment, String name,
+                     int width, int height, long[] times, LatLonTable table) {
+        this.file = file;
+        this.segments = segments;
+        this.planesPerSegment = planesPerSegment;
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.times = times;
+        this.table = table;
+    }
+
+    /**
+     * Write the level `z` of all time steps of `grid` to `target`.
+     */
+    public static void write(GridDatatype grid, int z, File target) throws IOException {
+        GridCoordSystem coords = grid.getCoordinateSystem();
+        LatLonTable table = LatLonTable.of(coords);
+        Date[] dates = coords.getTimeAxis1D().getTimeDates();
+        int width = table.getWidth();
+        int height = table.getHeight();
+        File temp = new File(target.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(grid.getName());
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(dates.length);
+            out.writeBoolean(table.isSeparable());
+            for (Date date: dates)
+                out.writeLong(date.getTime());
+            if (table.isSeparable()) {
+                for (int y = 0; y < height; ++y)
+                    out.writeDouble(table.getLatitude(0, y));
+                for (int x = 0; x < width; ++x)
+                    out.writeDouble(table.getLongitude(x, 0));
+            } else {
+                for (int y = 0; y < height; ++y)
+                    for (int x = 0; x < width; ++x)
+                        out.writeDouble(table.getLatitude(x, y));
+                for (int y = 0; y < height; ++y)
+                    for (int x = 0; x < width; ++x)
+                        out.writeDouble(table.getLongitude(x, y));
+            }
+            while (out.size() % 8 != 0)
+                out.writeByte(0);
+            for (int t = 0; t < dates.length; ++t) {
+                Array data;
+                synchronized (GridDatasetCache.lock(grid)) {
+                    data = grid.readYXData(t, z);
+                }
+                Index index = data.getIndex();
+                for (int n = 0; n < width * height; ++n) {
+                    index.setCurrentCounter(n);
+                    double value = data.getDouble(index);
+                    out.writeFloat(grid.isMissingData(value) ? Float.NaN : (float) value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target))
+                throw new IOException("Can't rename " + temp + " to " + target + ".");
+        }
+    }
+
+    /**
+     * Map the flat grid in `source`.
+     */
+    public static FlatGrid open(File source) throws IOException {
+        return open(source, SEGMENT_BYTES);
+    }
+
+    /**
+     * Map the flat grid in `source` in segments of at most
+     * `segmentBytes`.
+     */
+    static FlatGrid open(File source, long segmentBytes) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(source, "r");
+        boolean opened = false;
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            file.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic) || file.readInt() != VERSION)
+                throw new IOException("Not a flat grid: " + source);
+            String name = file.readUTF();
+            int width = file.readInt();
+            int height = file.readInt();
+            int count = file.readInt();
+            boolean separable = file.readBoolean();
+            long cells = (long) width * height;
+            if (width <= 0 || height <= 0 || count < 0 || 4 * cells > Math.min(segmentBytes, SEGMENT_BYTES))
+                throw new IOException("Unsupported flat grid of " + width + " x " + height + " x " + count + ": " + source);
+            long[] times = new long[count];
+            FileChannel channel = file.getChannel();
+            long position = file.getFilePointer();
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * times.length).asLongBuffer().get(times);
+            position += 8L * times.length;
+            double[] latitudes = new double[separable ? height : (int) cells];
+            double[] longitudes = new double[separable ? width : (int) cells];
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * latitudes.length).asDoubleBuffer().get(latitudes);
+            position += 8L * latitudes.length;
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * longitudes.length).asDoubleBuffer().get(longitudes);
+            position += 8L * longitudes.length;
+            long offset = (position + 7) & ~7L;
+            long plane = 4 * cells;
+            if (file.length() < offset + plane * times.length)
+                throw new IOException("Truncated flat grid: " + source);
+            int planesPerSegment = (int) Math.min(Math.max(1, times.length), Math.min(segmentBytes, SEGMENT_BYTES) / plane);
+            MappedByteBuffer[] segments = new MappedByteBuffer[(times.length + planesPerSegment - 1) / planesPerSegment];
+            for (int n = 0; n < segments.length; ++n) {
+                int planes = Math.min(planesPerSegment, times.length - n * planesPerSegment);
+                segments[n] = channel.map(FileChannel.MapMode.READ_ONLY, offset + n * planesPerSegment * plane, planes * plane);
+            }
+            LatLonTable table = new LatLonTable(width, height, separable, latitudes, longitudes);
+            FlatGrid grid = new FlatGrid(file, segments, planesPerSegment, name, width, height, times, table);
+            opened = true;
+            return grid;
+        } finally {
+            if (!opened)
+                file.close();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long[] getTimes() {
+        return times.clone();
+    }
+
+    public LatLonTable getLatLonTable() {
+        return table;
+    }
+
+    /**
+     * Returns the time index of the valid time in milliseconds, or -1.
+     */
+    public int findTimeIndex(long time) {
+        int t = Arrays.binarySearch(times, time);
+        return t < 0 ? -1 : t;
+    }
+
+    /**
+     * Returns the x and y index of the cell nearest to the latitude and
+     * longitude, or {-1, -1} if it is not on the grid.
+     */
+    public int[] findXY(double latitude, double longitude) {
+        if (!table.isSeparable()) {
+            synchronized (this) {
+                if (index == null)
+                    index = new LatLonIndex(table);
+            }
+            return index.findXY(latitude, longitude);
+        }
+        int y = nearest(table, true, height, latitude);
+        int x = nearest(table, false, width, longitude);
+        return x < 0 || y < 0 ? new int[]{-1, -1} : new int[]{x, y};
+    }
+
+    /**
+     * Returns the value at time index t and grid index x, y.
+     */
+    public float get(int t, int x, int y) {
+        return segments[t / planesPerSegment].getFloat(position(t % planesPerSegment, x, y));
+    }
+
+    /**
+     * Returns the values of all time steps at grid index x, y.
+     */
+    public float[] getSeries(int x, int y) {
+        float[] values = new float[times.length];
+        for (int t = 0; t < values.length; ++t)
+            values[t] = segments[t / planesPerSegment].getFloat(position(t % planesPerSegment, x, y));
+        return values;
+    }
+
+    /**
+     * Returns the byte position of grid index x, y of the plane at
+     * `index` within its segment.
+     */
+    private int position(int index, int x, int y) {
+        return (int) (4 * ((long) index * width * height + (long) y * width + x));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Returns the index of the axis value nearest to `value`, or -1 if
+     * it lies more than half a step outside the axis.
+     */
+    static int nearest(LatLonTable table, boolean latitude, int size, double value) {
+        if (size == 1)
+            return 0;
+        double first = axis(table, latitude, 0);
+        double step = axis(table, latitude, 1) - first;
+        if (!latitude) {
+            // longitudes wrap around
+            double end = first + step * size;
+            while (value < Math.min(first, end) - Math.abs(step) / 2)
+                value += 360;
+            while (value > Math.max(first, end) + Math.abs(step) / 2)
+                value -= 360;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        boolean ascending = step > 0;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((axis(table, latitude, mid) < value) == ascending)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int best = lo;
+        if (lo > 0 && Math.abs(axis(table, latitude, lo - 1) - value) <= Math.abs(axis(table, latitude, lo) - value))
+            best = lo - 1;
+        if (Math.abs(axis(table, latitude, best) - value) > Math.abs(step) / 2 + 1e-9)
+            return -1;
+        return best;
+    }
+
+    private static double axis(LatLonTable table, boolean latitude, int n) {
+        return latitude ? table.getLatitude(0, n) : table.getLongitude(n, 0);
+    }
+
+}
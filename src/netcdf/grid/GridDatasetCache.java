@@ -0,0 +1,289 @@
+package netcdf.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+
+/**
+ * A process-wide cache of open grid datasets keyed by url. Datasets
+ * are reference counted: every acquire must be paired with a release.
+ * Datasets that are no longer referenced are closed when the cache
+ * grows beyond its capacity or when they have been idle for too long.
+ * Idle datasets are evicted by a daemon thread every reap interval, so
+ * they are closed also when the cache is no longer used.
+ * Local files are reopened when their modification time changes.
+ *
+ * A cached dataset is shared, reads from different threads must be
+ * synchronized on the lock returned by lock(grid).
+ */
+public class GridDatasetCache {
+
+    private static final Logger LOG = Logger.getLogger(GridDatasetCache.class);
+
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final long DEFAULT_MAX_IDLE = 5 * 60 * 1000;
+    public static final long DEFAULT_REAP_INTERVAL = 60 * 1000;
+
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "netcdf-dataset-reaper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int n = 0; n < LOCKS.length; ++n)
+            LOCKS[n] = new Object();
+    }
+
+    private static final GridDatasetCache INSTANCE = new GridDatasetCache(DEFAULT_CAPACITY, DEFAULT_MAX_IDLE, DEFAULT_REAP_INTERVAL);
+
+    static class Entry {
+
+        final String url;
+        final GridDataset dataset;
+        final long modified;
+        int references;
+        long lastUsed;
+        boolean detached;
+
+        Entry(String url, GridDataset dataset, long modified) {
+            this.url = url;
+            this.dataset = dataset;
+            this.modified = modified;
+        }
+
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<GridDataset, Entry> datasets = new IdentityHashMap<GridDataset, Entry>();
+
+    private int capacity;
+    private long maxIdle;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public GridDatasetCache(int capacity, long maxIdle) {
+        this(capacity, maxIdle, DEFAULT_REAP_INTERVAL);
+    }
+
+    /**
+     * Creates a cache whose idle datasets are evicted every
+     * `reapInterval` milliseconds. The reaper only holds a weak
+     * reference to the cache and stops once the cache is collected.
+     */
+    public GridDatasetCache(int capacity, long maxIdle, long reapInterval) {
+        this.capacity = capacity;
+        this.maxIdle = maxIdle;
+        schedule(this, reapInterval);
+    }
+
+    /**
+     * Returns the shared cache of the JVM.
+     */
+    public static GridDatasetCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the object reads of the dataset of `grid` synchronize on.
+     * Grids of the same dataset share the lock, also when they are
+     * taken from different GridDataset instances. Pass the grid of the
+     * dataset, not a subset made from it.
+     */
+    public static Object lock(GridDatatype grid) {
+        String location = grid.getCoordinateSystem().getXHorizAxis().getDatasetLocation();
+        int hash = location == null ? 0 : location.hashCode();
+        return LOCKS[(hash & 0x7fffffff) % LOCKS.length];
+    }
+
+    /**
+     * Returns the open dataset at `url`, opening it on a miss.
+     */
+    public GridDataset acquire(String url) throws IOException {
+        long modified = getModified(url);
+        synchronized (this) {
+            Entry entry = entries.get(url);
+            if (entry != null && entry.modified != modified) {
+                detach(entry);
+                entry = null;
+            }
+            if (entry != null) {
+                hits++;
+                entry.references++;
+                entry.lastUsed = System.currentTimeMillis();
+                return entry.dataset;
+            }
+            misses++;
+        }
+        GridDataset dataset = GridDataset.open(url);
+        synchronized (this) {
+            Entry entry = entries.get(url);
+            if (entry != null && entry.modified == modified) {
+                // opened concurrently by another thread
+                close(dataset);
+            } else {
+                if (entry != null)
+                    detach(entry);
+                entry = new Entry(url, dataset, modified);
+                entries.put(url, entry);
+                datasets.put(dataset, entry);
+            }
+            entry.references++;
+            entry.lastUsed = System.currentTimeMillis();
+            evict();
+            return entry.dataset;
+        }
+    }
+
+    /**
+     * Releases a dataset returned by acquire. Datasets that were not
+     * acquired from this cache are closed.
+     */
+    public synchronized void release(GridDataset dataset) {
+        Entry entry = datasets.get(dataset);
+        if (entry == null) {
+            close(dataset);
+            return;
+        }
+        entry.references--;
+        entry.lastUsed = System.currentTimeMillis();
+        if (entry.detached && entry.references <= 0) {
+            datasets.remove(dataset);
+            close(dataset);
+        }
+        evict();
+    }
+
+    /**
+     * Closes all datasets that are not referenced. Referenced datasets
+     * are closed when they are released.
+     */
+    public synchronized void clear() {
+        for (Entry entry: entries.values().toArray(new Entry[0]))
+            detach(entry);
+    }
+
+    /**
+     * Closes unreferenced datasets that have been idle for too long or
+     * that exceed the capacity, least recently used first.
+     */
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.references <= 0 && (entries.size() > capacity || now - entry.lastUsed > maxIdle)) {
+                iterator.remove();
+                datasets.remove(entry.dataset);
+                close(entry.dataset);
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized long getMaxIdle() {
+        return maxIdle;
+    }
+
+    public synchronized void setMaxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GridDatasetCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private void detach(Entry entry) {
+        entries.remove(entry.url);
+        entry.detached = true;
+        if (entry.references <= 0) {
+            datasets.remove(entry.dataset);
+            close(entry.dataset);
+        }
+    }
+
+    private static void schedule(GridDatasetCache cache, long interval) {
+        final WeakReference<GridDatasetCache> reference = new WeakReference<GridDatasetCache>(cache);
+        final ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+        synchronized (future) {
+            future[0] = REAPER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    GridDatasetCache cache = reference.get();
+                    if (cache != null) {
+                        try {
+                            cache.evict();
+                        } catch (RuntimeException e) {
+                            LOG.warn("Can't evict idle datasets: " + e.getMessage());
+                        }
+                    } else {
+                        synchronized (future) {
+                            future[0].cancel(false);
+                        }
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void close(GridDataset dataset) {
+        try {
+            dataset.close();
+        } catch (IOException e) {
+            LOG.warn("Can't close dataset " + dataset.getLocation() + ": " + e.getMessage());
+        }
+    }
+
+    static long getModified(String url) {
+        File file = new File(url.startsWith("file:") ? url.substring(5) : url);
+        return file.exists() ? file.lastModified() : 0;
+    }
+
+}
@@ -0,0 +1,389 @@
+package netcdf.grid;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dt.GridCoordSystem;
+
+/**
+ * A KD-tree over the cell centres of a grid coordinate system, used to
+ * find the cells nearest to a latitude and longitude in logarithmic
+ * time on curvilinear grids, where GridCoordSystem.findXYindexFromLatLon
+ * has to search the 2D coordinate tables. Cell centres are stored as
+ * points on the unit sphere, so distances are chord lengths and don't
+ * break at the date line or the poles. Indexes are cached per
+ * coordinate system like LatLonTable.
+ */
+public class LatLonIndex {
+
+    private static final int CAPACITY = 8;
+
+    @SuppressWarnings("serial")
+    private static final Map<String, LatLonIndex> CACHE = new LinkedHashMap<String, LatLonIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LatLonIndex> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private final int width;
+    private final int height;
+    private final double[] points;
+    private final int[] tree;
+    private final double[] latitudeEdges;
+    private final double[] longitudeEdges;
+    private final double maxDistance;
+
+    LatLonIndex(LatLonTable table) {
+        this.width = table.getWidth();
+        this.height = table.getHeight();
+        int cells = width * height;
+        this.points = new double[3 * cells];
+        for (int y = 0, n = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x, ++n)
+                toPoint(table.getLatitude(x, y), table.getLongitude(x, y), points, 3 * n);
+        }
+        this.tree = new int[cells];
+        for (int n = 0; n < cells; ++n)
+            tree[n] = n;
+        build(0, cells, 0);
+        if (isBounded(width, height)) {
+            this.latitudeEdges = edges(table, true);
+            this.longitudeEdges = edges(table, false);
+            this.maxDistance = 0;
+        } else {
+            this.latitudeEdges = null;
+            this.longitudeEdges = null;
+            this.maxDistance = maxNeighbourDistance();
+        }
+    }
+
+    /**
+     * Returns the cached index of the coordinate system, building it
+     * on first use.
+     */
+    public static LatLonIndex of(GridCoordSystem coords) {
+        String key = LatLonTable.key(coords);
+        synchronized (CACHE) {
+            LatLonIndex index = CACHE.get(key);
+            if (index != null)
+                return index;
+        }
+        LatLonIndex index = new LatLonIndex(LatLonTable.of(coords));
+        synchronized (CACHE) {
+            CACHE.put(key, index);
+        }
+        return index;
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Returns true if the horizontal axes of the coordinate system are
+     * 2D, where an index is faster than findXYindexFromLatLon.
+     */
+    public static boolean isCurvilinear(GridCoordSystem coords) {
+        return !(coords.getXHorizAxis() instanceof CoordinateAxis1D && coords.getYHorizAxis() instanceof CoordinateAxis1D);
+    }
+
+    /**
+     * Returns true if locations on the coordinate system should be
+     * found with an index, which needs a curvilinear grid of at least
+     * 3 x 3 cells to bound its cells like findXYindexFromLatLon does.
+     */
+    public static boolean isIndexed(GridCoordSystem coords) {
+        return isCurvilinear(coords)
+            && isBounded(coords.getXHorizAxis().getShape()[coords.getXHorizAxis().getRank() - 1],
+                         coords.getYHorizAxis().getShape()[0]);
+    }
+
+    private static boolean isBounded(int width, int height) {
+        return width >= 3 && height >= 3;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the cell, y * width + x, whose bounds contain the latitude
+     * and longitude, or -1 if the location is not on the grid. Cell
+     * bounds are made like the edges of CoordinateAxis2D, so the result
+     * is the cell GridCoordSystem.findXYindexFromLatLon finds. Only the
+     * nearest cell and its neighbours are tested. Grids narrower than 3
+     * cells have no bounds, there the nearest cell is returned unless
+     * the location is farther away from it than any two neighbouring
+     * cells are from each other.
+     */
+    public int findCell(double latitude, double longitude) {
+        double[] query = toPoint(latitude, longitude, new double[3], 0);
+        Neighbours neighbours = new Neighbours(1);
+        nearest(0, tree.length, 0, query, neighbours);
+        if (neighbours.size == 0)
+            return -1;
+        int nearest = neighbours.cells[0];
+        if (latitudeEdges == null)
+            return neighbours.distances[0] > maxDistance ? -1 : nearest;
+        if (contains(nearest % width, nearest / width, latitude, longitude))
+            return nearest;
+        for (int y = Math.max(0, nearest / width - 1); y <= Math.min(height - 1, nearest / width + 1); ++y) {
+            for (int x = Math.max(0, nearest % width - 1); x <= Math.min(width - 1, nearest % width + 1); ++x) {
+                if (contains(x, y, latitude, longitude))
+                    return y * width + x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the x and y index of the cell nearest to the latitude and
+     * longitude, or {-1, -1} like GridCoordSystem.findXYindexFromLatLon
+     * if the location is not on the grid.
+     */
+    public int[] findXY(double latitude, double longitude) {
+        int cell = findCell(latitude, longitude);
+        return cell < 0 ? new int[]{-1, -1} : new int[]{cell % width, cell / width};
+    }
+
+    /**
+     * Returns the `k` cells nearest to the latitude and longitude,
+     * nearest first.
+     */
+    public int[] findNearestCells(double latitude, double longitude, int k) {
+        double[] query = toPoint(latitude, longitude, new double[3], 0);
+        Neighbours neighbours = new Neighbours(Math.min(k, tree.length));
+        nearest(0, tree.length, 0, query, neighbours);
+        return Arrays.copyOf(neighbours.cells, neighbours.size);
+    }
+
+    /**
+     * Returns the cells nearest to the points given by `latitudes` and
+     * `longitudes`, see findCell.
+     */
+    public int[] findCells(double[] latitudes, double[] longitudes) {
+        int[] cells = new int[latitudes.length];
+        for (int n = 0; n < cells.length; ++n)
+            cells[n] = findCell(latitudes[n], longitudes[n]);
+        return cells;
+    }
+
+    static double[] toPoint(double latitude, double longitude, double[] point, int offset) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double cos = Math.cos(lat);
+        point[offset] = cos * Math.cos(lon);
+        point[offset + 1] = cos * Math.sin(lon);
+        point[offset + 2] = Math.sin(lat);
+        return point;
+    }
+
+    private double distance(int cell, double[] query) {
+        double dx = points[3 * cell] - query[0];
+        double dy = points[3 * cell + 1] - query[1];
+        double dz = points[3 * cell + 2] - query[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double maxNeighbourDistance() {
+        double max = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int cell = y * width + x;
+                double[] point = Arrays.copyOfRange(points, 3 * cell, 3 * cell + 3);
+                if (x + 1 < width)
+                    max = Math.max(max, distance(cell + 1, point));
+                if (y + 1 < height)
+                    max = Math.max(max, distance(cell + width, point));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the (height + 1) x (width + 1) cell corners of a table of
+     * at least 3 x 3 cells, like CoordinateAxis2D.makeEdges: inner
+     * corners are the mean of the four surrounding cell centres, the
+     * outer ones are extrapolated. Longitudes are unwrapped around one
+     * of the values they are combined with, so cells crossing the date
+     * line keep corners near it.
+     */
+    private static double[] edges(LatLonTable table, boolean latitude) {
+        int width = table.getWidth();
+        int height = table.getHeight();
+        int stride = width + 1;
+        double[] edges = new double[(height + 1) * stride];
+        for (int y = 0; y < height - 1; ++y) {
+            for (int x = 0; x < width - 1; ++x) {
+                double origin = value(table, latitude, x, y);
+                edges[(y + 1) * stride + x + 1] =
+                    (origin + value(table, latitude, x + 1, y, origin)
+                     + value(table, latitude, x, y + 1, origin) + value(table, latitude, x + 1, y + 1, origin)) / 4;
+            }
+            int row = (y + 1) * stride;
+            edges[row] = extrapolate(edges[row + 1], edges[row + 2], latitude);
+            edges[row + width] = extrapolate(edges[row + width - 1], edges[row + width - 2], latitude);
+        }
+        for (int x = 0; x <= width; ++x) {
+            edges[x] = extrapolate(edges[stride + x], edges[2 * stride + x], latitude);
+            edges[height * stride + x] = extrapolate(edges[(height - 1) * stride + x], edges[(height - 2) * stride + x], latitude);
+        }
+        return edges;
+    }
+
+    private static double value(LatLonTable table, boolean latitude, int x, int y) {
+        return latitude ? table.getLatitude(x, y) : table.getLongitude(x, y);
+    }
+
+    private static double value(LatLonTable table, boolean latitude, int x, int y, double origin) {
+        return latitude ? table.getLatitude(x, y) : unwrap(table.getLongitude(x, y), origin);
+    }
+
+    /**
+     * Returns the corner beyond `edge`, as far from it as `inner` is.
+     */
+    private static double extrapolate(double edge, double inner, boolean latitude) {
+        return edge - ((latitude ? inner : unwrap(inner, edge)) - edge);
+    }
+
+    /**
+     * Returns the longitude within 180 degrees of `origin`.
+     */
+    static double unwrap(double longitude, double origin) {
+        return origin + Math.IEEEremainder(longitude - origin, 360);
+    }
+
+    /**
+     * Returns true if the location is inside the bounds of the cell,
+     * on the same side of all four of its sides.
+     */
+    private boolean contains(int x, int y, double latitude, double longitude) {
+        int stride = width + 1;
+        int[] corners = {y * stride + x, y * stride + x + 1, (y + 1) * stride + x + 1, (y + 1) * stride + x};
+        double origin = longitudeEdges[corners[0]];
+        longitude = unwrap(longitude, origin);
+        double[] longitudes = new double[corners.length];
+        for (int n = 0; n < corners.length; ++n)
+            longitudes[n] = unwrap(longitudeEdges[corners[n]], origin);
+        boolean sign = false;
+        for (int n = 0; n < corners.length; ++n) {
+            int from = corners[n];
+            int to = corners[(n + 1) % corners.length];
+            double det = (longitudes[(n + 1) % corners.length] - longitudes[n]) * (latitude - latitudeEdges[from])
+                - (latitudeEdges[to] - latitudeEdges[from]) * (longitude - longitudes[n]);
+            if (n == 0)
+                sign = det > 0;
+            else if (sign != det > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Arrange tree[lo, hi) as an implicit KD-tree, the median of the
+     * range along the split axis ends up in the middle.
+     */
+    private void build(int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            int axis = depth % 3;
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axis);
+            build(lo, mid, depth + 1);
+            lo = mid + 1;
+            ++depth;
+        }
+    }
+
+    private double coordinate(int n, int axis) {
+        return points[3 * tree[n] + axis];
+    }
+
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = coordinate((lo + hi) >>> 1, axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot)
+                    ++i;
+                while (coordinate(j, axis) > pivot)
+                    --j;
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = swap;
+                    ++i;
+                    --j;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private void nearest(int lo, int hi, int depth, double[] query, Neighbours neighbours) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        int cell = tree[mid];
+        neighbours.offer(cell, distance(cell, query));
+        int axis = depth % 3;
+        double diff = query[axis] - points[3 * cell + axis];
+        if (diff < 0) {
+            nearest(lo, mid, depth + 1, query, neighbours);
+            if (diff * diff < neighbours.worst())
+                nearest(mid + 1, hi, depth + 1, query, neighbours);
+        } else {
+            nearest(mid + 1, hi, depth + 1, query, neighbours);
+            if (diff * diff < neighbours.worst())
+                nearest(lo, mid, depth + 1, query, neighbours);
+        }
+    }
+
+    /**
+     * The k nearest cells found so far, ordered by distance.
+     */
+    static class Neighbours {
+
+        final int[] cells;
+        final double[] distances;
+        int size;
+
+        Neighbours(int k) {
+            this.cells = new int[k];
+            this.distances = new double[k];
+        }
+
+        double worst() {
+            return size < cells.length ? Double.POSITIVE_INFINITY : distances[size - 1];
+        }
+
+        void offer(int cell, double distance) {
+            if (cells.length == 0 || distance >= worst())
+                return;
+            int n = size < cells.length ? size++ : size - 1;
+            while (n > 0 && distances[n - 1] > distance) {
+                cells[n] = cells[n - 1];
+                distances[n] = distances[n - 1];
+                --n;
+            }
+            cells[n] = cell;
+            distances[n] = distance;
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+package netcdf.grid;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+
+/**
+ * Precomputed latitudes and longitudes of the cells of a grid
+ * coordinate system. Regular lat/lon grids are stored as two separable
+ * 1D axes, projected and curvilinear grids as 2D tables in row-major
+ * order. Tables are cached per coordinate system and shared by all
+ * readers in the JVM.
+ */
+public class LatLonTable {
+
+    private static final int CAPACITY = 32;
+
+    @SuppressWarnings("serial")
+    private static final Map<String, LatLonTable> CACHE = new LinkedHashMap<String, LatLonTable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LatLonTable> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private final int width;
+    private final int height;
+    private final boolean separable;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    LatLonTable(int width, int height, boolean separable, double[] latitudes, double[] longitudes) {
+        this.width = width;
+        this.height = height;
+        this.separable = separable;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * Returns the cached table of the coordinate system, computing it
+     * on first use.
+     */
+    public static LatLonTable of(GridCoordSystem coords) {
+        String key = key(coords);
+        synchronized (CACHE) {
+            LatLonTable table = CACHE.get(key);
+            if (table != null)
+                return table;
+        }
+        LatLonTable table = build(coords);
+        synchronized (CACHE) {
+            CACHE.put(key, table);
+        }
+        return table;
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    static LatLonTable build(GridCoordSystem coords) {
+        CoordinateAxis xAxis = coords.getXHorizAxis();
+        CoordinateAxis yAxis = coords.getYHorizAxis();
+        int width = (int) xAxis.getSize();
+        int height = (int) yAxis.getSize();
+        if (coords.isLatLon() && xAxis instanceof CoordinateAxis1D && yAxis instanceof CoordinateAxis1D) {
+            double[] latitudes = new double[height];
+            double[] longitudes = new double[width];
+            for (int y = 0; y < height; ++y)
+                latitudes[y] = coords.getLatLon(0, y).getLatitude();
+            for (int x = 0; x < width; ++x)
+                longitudes[x] = coords.getLatLon(x, 0).getLongitude();
+            return new LatLonTable(width, height, true, latitudes, longitudes);
+        }
+        double[] latitudes = new double[width * height];
+        double[] longitudes = new double[width * height];
+        for (int y = 0, n = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x, ++n) {
+                LatLonPoint point = coords.getLatLon(x, y);
+                latitudes[n] = point.getLatitude();
+                longitudes[n] = point.getLongitude();
+            }
+        }
+        return new LatLonTable(width, height, false, latitudes, longitudes);
+    }
+
+    static String key(GridCoordSystem coords) {
+        String location = coords.getXHorizAxis().getDatasetLocation();
+        File file = location == null ? null : new File(location);
+        long modified = file != null && file.exists() ? file.lastModified() : 0;
+        return location + "@" + modified + "#" + coords.getName();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the latitude only depends on y and the longitude
+     * only on x.
+     */
+    public boolean isSeparable() {
+        return separable;
+    }
+
+    public double getLatitude(int x, int y) {
+        return separable ? latitudes[y] : latitudes[y * width + x];
+    }
+
+    public double getLongitude(int x, int y) {
+        return separable ? longitudes[x] : longitudes[y * width + x];
+    }
+
+    public LatLonPoint getLatLon(int x, int y) {
+        return new LatLonPointImpl(getLatitude(x, y), getLongitude(x, y));
+    }
+
+}
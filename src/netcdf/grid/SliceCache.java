@@ -0,0 +1,257 @@
+package netcdf.grid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * A cache of decoded YX slices of grids, keyed by dataset, grid, the
+ * shape of its axes, time index and z index, and bounded by the total
+ * number of bytes of the cached slices. The least recently used slices
+ * are evicted first.
+ * Slices are held on the heap, or in direct buffers outside of the
+ * heap to keep large slices away from the garbage collector. The
+ * modification time of local datasets is part of the key, slices of
+ * a changed file are never returned again and age out of the cache.
+ */
+public class SliceCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final SliceCache INSTANCE = new SliceCache(DEFAULT_MAX_BYTES, false);
+
+    /**
+     * A decoded YX slice of a grid, stored row-major as floats if the
+     * grid is read as floats, otherwise as doubles.
+     */
+    public static class Slice {
+
+        private final int width;
+        private final int height;
+        private final boolean floats;
+        private final float[] floatValues;
+        private final double[] doubleValues;
+        private final FloatBuffer floatBuffer;
+        private final DoubleBuffer doubleBuffer;
+
+        Slice(Array data, int width, int height, boolean offHeap) {
+            this.width = width;
+            this.height = height;
+            this.floats = data.getElementType() == float.class;
+            long size = (long) (floats ? 4 : 8) * width * height;
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Slice of " + width + " x " + height + " is too large to cache.");
+            int cells = width * height;
+            Index index = data.getIndex();
+            float[] floatValues = null;
+            double[] doubleValues = null;
+            FloatBuffer floatBuffer = null;
+            DoubleBuffer doubleBuffer = null;
+            if (offHeap && floats) {
+                floatBuffer = ByteBuffer.allocateDirect((int) size).asFloatBuffer();
+                for (int n = 0; n < cells; ++n)
+                    floatBuffer.put(n, data.getFloat(at(index, n)));
+            } else if (offHeap) {
+                doubleBuffer = ByteBuffer.allocateDirect((int) size).asDoubleBuffer();
+                for (int n = 0; n < cells; ++n)
+                    doubleBuffer.put(n, data.getDouble(at(index, n)));
+            } else if (floats) {
+                floatValues = new float[cells];
+                for (int n = 0; n < cells; ++n)
+                    floatValues[n] = data.getFloat(at(index, n));
+            } else {
+                doubleValues = new double[cells];
+                for (int n = 0; n < cells; ++n)
+                    doubleValues[n] = data.getDouble(at(index, n));
+            }
+            this.floatValues = floatValues;
+            this.doubleValues = doubleValues;
+            this.floatBuffer = floatBuffer;
+            this.doubleBuffer = doubleBuffer;
+        }
+
+        private static Index at(Index index, int n) {
+            index.setCurrentCounter(n);
+            return index;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public double get(int x, int y) {
+            int n = y * width + x;
+            if (floatValues != null)
+                return floatValues[n];
+            if (doubleValues != null)
+                return doubleValues[n];
+            return floatBuffer != null ? floatBuffer.get(n) : doubleBuffer.get(n);
+        }
+
+        /**
+         * Returns the bytes the values of the slice take.
+         */
+        public long getSizeBytes() {
+            return (long) (floats ? 4 : 8) * width * height;
+        }
+
+        public boolean isOffHeap() {
+            return floatBuffer != null || doubleBuffer != null;
+        }
+
+    }
+
+    private final LinkedHashMap<String, Slice> slices = new LinkedHashMap<String, Slice>(16, 0.75f, true);
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SliceCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Returns the shared cache of the JVM.
+     */
+    public static SliceCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the YX slice of `grid` at time index `t` and z index
+     * `z`, reading it on a miss.
+     */
+    public Slice get(GridDatatype grid, int t, int z) throws IOException {
+        String key = key(grid, t, z);
+        synchronized (this) {
+            Slice slice = slices.get(key);
+            if (slice != null) {
+                hits++;
+                return slice;
+            }
+            misses++;
+        }
+        Array data;
+        synchronized (GridDatasetCache.lock(grid)) {
+            data = grid.readYXData(t, z);
+        }
+        int[] shape = data.getShape();
+        Slice slice = new Slice(data, shape[shape.length - 1], shape.length > 1 ? shape[shape.length - 2] : 1, offHeap);
+        if (slice.getSizeBytes() > maxBytes)
+            return slice;
+        synchronized (this) {
+            Slice previous = slices.put(key, slice);
+            if (previous != null)
+                bytes -= previous.getSizeBytes();
+            bytes += slice.getSizeBytes();
+            evict();
+        }
+        return slice;
+    }
+
+    /**
+     * Drops all slices of the dataset at `location`.
+     */
+    public synchronized void invalidate(String location) {
+        Iterator<Map.Entry<String, Slice>> iterator = slices.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Slice> entry = iterator.next();
+            if (entry.getKey().startsWith(location + "@")) {
+                bytes -= entry.getValue().getSizeBytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        slices.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Slice> iterator = slices.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getSizeBytes();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the key of a slice. The shape and range of every axis are
+     * part of it, since a subset of a grid has the name and the
+     * coordinate system name of the full grid.
+     */
+    static String key(GridDatatype grid, int t, int z) {
+        StringBuilder key = new StringBuilder(LatLonTable.key(grid.getCoordinateSystem()));
+        key.append('#').append(grid.getName());
+        for (CoordinateAxis axis: grid.getCoordinateSystem().getCoordinateAxes()) {
+            key.append('#').append(axis.getShortName()).append(Arrays.toString(axis.getShape()));
+            if (axis.isNumeric())
+                key.append(axis.getMinValue()).append(':').append(axis.getMaxValue());
+        }
+        return key.append('#').append(t).append('#').append(z).toString();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public synchronized int size() {
+        return slices.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 if there
+     * were none.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SliceCache[size=" + slices.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+}
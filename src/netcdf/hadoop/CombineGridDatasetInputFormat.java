@@ -0,0 +1,211 @@
+package netcdf.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.log4j.Logger;
+
+import netcdf.cascading.TupleWrapper;
+import netcdf.hadoop.GridDatasetInputFormat.GridDatasetRecordReader;
+import cascading.tuple.Tuple;
+
+/**
+ * An input format that packs the splits planned by
+ * GridDatasetInputFormat into fewer, larger splits, like Hadoop's
+ * CombineFileInputFormat does for files. Jobs over many small datasets
+ * then run one task per packed split instead of one per dataset. Splits
+ * are grouped by the host storing most of their dataset and packed in
+ * order until their estimated size reaches the combine max bytes.
+ */
+public class CombineGridDatasetInputFormat extends GridDatasetInputFormat {
+
+    private static final Logger LOG = Logger.getLogger(CombineGridDatasetInputFormat.class);
+
+    /**
+     * A split made of several GridDatasetInputFormat splits, read one
+     * after another.
+     */
+    public static class CombineGridDatasetInputSplit implements InputSplit {
+
+        private InputSplit[] splits = new InputSplit[0];
+        private String[] hosts = new String[0];
+        private long length;
+
+        public CombineGridDatasetInputSplit() {
+        }
+
+        public CombineGridDatasetInputSplit(InputSplit[] splits, String[] hosts) throws IOException {
+            this.splits = splits;
+            this.hosts = hosts;
+            for (InputSplit split: splits)
+                length += split.getLength();
+        }
+
+        /**
+         * Returns the packed splits.
+         */
+        public InputSplit[] getSplits() {
+            return splits;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return length;
+        }
+
+        @Override
+        public String[] getLocations() throws IOException {
+            return hosts;
+        }
+
+        @Override
+        public void readFields(DataInput input) throws IOException {
+            length = WritableUtils.readVLong(input);
+            splits = new InputSplit[WritableUtils.readVInt(input)];
+            for (int n = 0; n < splits.length; ++n) {
+                GridDatasetInputSplit split = new GridDatasetInputSplit();
+                split.readFields(input);
+                splits[n] = split;
+            }
+        }
+
+        @Override
+        public void write(DataOutput output) throws IOException {
+            WritableUtils.writeVLong(output, length);
+            WritableUtils.writeVInt(output, splits.length);
+            for (InputSplit split: splits)
+                split.write(output);
+        }
+
+    }
+
+    /**
+     * Reads the packed splits of a CombineGridDatasetInputSplit in
+     * sequence, opening a GridDatasetRecordReader for one split at a
+     * time.
+     */
+    public static class CombineGridDatasetRecordReader implements RecordReader<NullWritable, TupleWrapper> {
+
+        private final JobConf job;
+        private final Reporter reporter;
+        private final CombineGridDatasetInputSplit split;
+        private GridDatasetRecordReader current;
+        private int index = 0;
+        private long pos = 0;
+        private long bytes = 0;
+
+        public CombineGridDatasetRecordReader(CombineGridDatasetInputSplit split, JobConf job, Reporter reporter) {
+            this.split = split;
+            this.job = job;
+            this.reporter = reporter;
+        }
+
+        @Override
+        public boolean next(NullWritable key, TupleWrapper value) throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (index >= split.getSplits().length)
+                        return false;
+                    current = new GridDatasetRecordReader((GridDatasetInputSplit) split.getSplits()[index], job, reporter);
+                }
+                if (current.next(key, value))
+                    return true;
+                pos += current.getPos();
+                bytes += split.getSplits()[index].getLength();
+                current.close();
+                current = null;
+                index++;
+            }
+        }
+
+        @Override
+        public NullWritable createKey() {
+            return NullWritable.get();
+        }
+
+        @Override
+        public TupleWrapper createValue() {
+            return new TupleWrapper(new Tuple());
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return pos + (current == null ? 0 : current.getPos());
+        }
+
+        /**
+         * Returns the progress weighted by the estimated size of the
+         * packed splits.
+         */
+        @Override
+        public float getProgress() throws IOException {
+            InputSplit[] splits = split.getSplits();
+            if (index >= splits.length)
+                return 1;
+            if (split.getLength() <= 0)
+                return (index + (current == null ? 0 : current.getProgress())) / splits.length;
+            float read = bytes + (current == null ? 0 : current.getProgress() * splits[index].getLength());
+            return Math.min(1, read / split.getLength());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+
+    }
+
+    @Override
+    public RecordReader<NullWritable, TupleWrapper> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+        return new CombineGridDatasetRecordReader((CombineGridDatasetInputSplit) split, job, reporter);
+    }
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int ignored) throws IOException {
+        long maxBytes = new GridDatasetConfiguration(job).getCombineMaxBytes();
+        InputSplit[] splits = super.getSplits(job, ignored);
+        Map<String, List<InputSplit>> hosts = new LinkedHashMap<String, List<InputSplit>>();
+        for (InputSplit split: splits) {
+            String[] locations = split.getLocations();
+            String host = locations.length > 0 ? locations[0] : "";
+            List<InputSplit> group = hosts.get(host);
+            if (group == null)
+                hosts.put(host, group = new ArrayList<InputSplit>());
+            group.add(split);
+        }
+        List<InputSplit> combined = new ArrayList<InputSplit>();
+        for (Map.Entry<String, List<InputSplit>> group: hosts.entrySet()) {
+            String[] locations = group.getKey().isEmpty() ? new String[0] : new String[]{group.getKey()};
+            List<InputSplit> packed = new ArrayList<InputSplit>();
+            long bytes = 0;
+            for (InputSplit split: group.getValue()) {
+                if (!packed.isEmpty() && bytes + split.getLength() > maxBytes) {
+                    combined.add(new CombineGridDatasetInputSplit(packed.toArray(new InputSplit[0]), locations));
+                    packed.clear();
+                    bytes = 0;
+                }
+                packed.add(split);
+                bytes += split.getLength();
+            }
+            if (!packed.isEmpty())
+                combined.add(new CombineGridDatasetInputSplit(packed.toArray(new InputSplit[0]), locations));
+        }
+        LOG.debug("Packed " + splits.length + " splits into " + combined.size() + " splits of at most " + maxBytes + " bytes.");
+        return combined.toArray(new InputSplit[0]);
+    }
+
+}
@@ -0,0 +1,256 @@
+package netcdf.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.io.WritableUtils;
+import org.joda.time.DateTime;
+
+/**
+ * A single cell of a grid, the compact alternative to a record tuple.
+ * The timestamp is held as milliseconds since the epoch and all
+ * numbers as primitives. Model, datatype and unit are written as an
+ * index into the Dictionary of the job, or inline if they are not in
+ * the dictionary.
+ */
+public class GridCell implements Comparable<GridCell> {
+
+    private String model;
+    private String datatype;
+    private String unit;
+    private long timestamp;
+    private double latitude;
+    private double longitude;
+    private double value;
+    private int width;
+    private int height;
+    private int x;
+    private int y;
+
+    /**
+     * The strings written as indexes instead of inline.
+     */
+    public static class Dictionary {
+
+        private final String[] strings;
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        public Dictionary(String... strings) {
+            Set<String> distinct = new LinkedHashSet<String>();
+            for (String string: strings) {
+                if (string != null)
+                    distinct.add(string);
+            }
+            this.strings = distinct.toArray(new String[0]);
+            for (int n = 0; n < this.strings.length; ++n)
+                indexes.put(this.strings[n], n);
+        }
+
+        /**
+         * Returns the dictionary of the cell dictionary key. It is only
+         * taken from this job level key, never from the models and
+         * datatypes of a source, which differ between the taps and
+         * steps of a flow.
+         */
+        public static Dictionary of(GridDatasetConfiguration configuration) {
+            String[] strings = configuration.getCellDictionary();
+            return strings == null ? new Dictionary() : new Dictionary(strings);
+        }
+
+        public int size() {
+            return strings.length;
+        }
+
+        void writeString(DataOutput output, String string) throws IOException {
+            if (string == null) {
+                WritableUtils.writeVInt(output, -1);
+                return;
+            }
+            Integer index = indexes.get(string);
+            if (index != null) {
+                WritableUtils.writeVInt(output, index + 1);
+            } else {
+                WritableUtils.writeVInt(output, 0);
+                WritableUtils.writeString(output, string);
+            }
+        }
+
+        String readString(DataInput input) throws IOException {
+            int code = WritableUtils.readVInt(input);
+            if (code < 0)
+                return null;
+            if (code == 0)
+                return WritableUtils.readString(input);
+            if (code > strings.length)
+                throw new IOException("Invalid dictionary index " + (code - 1) + ", the dictionary has " + strings.length + " entries.");
+            return strings[code - 1];
+        }
+
+    }
+
+    public GridCell() {
+    }
+
+    public GridCell(String model, String datatype, String unit, long timestamp, double latitude, double longitude,
+                    double value, int width, int height, int x, int y) {
+        set(model, datatype, unit, timestamp, latitude, longitude, value, width, height, x, y);
+    }
+
+    public void set(String model, String datatype, String unit, long timestamp, double latitude, double longitude,
+                    double value, int width, int height, int x, int y) {
+        this.model = model;
+        this.datatype = datatype;
+        this.unit = unit;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.value = value;
+        this.width = width;
+        this.height = height;
+        this.x = x;
+        this.y = y;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getDatatype() {
+        return datatype;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Returns the timestamp in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public DateTime getDateTime() {
+        return new DateTime(timestamp);
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public void write(DataOutput output, Dictionary dictionary) throws IOException {
+        dictionary.writeString(output, model);
+        dictionary.writeString(output, datatype);
+        dictionary.writeString(output, unit);
+        WritableUtils.writeVLong(output, timestamp);
+        output.writeDouble(latitude);
+        output.writeDouble(longitude);
+        output.writeDouble(value);
+        WritableUtils.writeVInt(output, width);
+        WritableUtils.writeVInt(output, height);
+        WritableUtils.writeVInt(output, x);
+        WritableUtils.writeVInt(output, y);
+    }
+
+    public void readFields(DataInput input, Dictionary dictionary) throws IOException {
+        model = dictionary.readString(input);
+        datatype = dictionary.readString(input);
+        unit = dictionary.readString(input);
+        timestamp = WritableUtils.readVLong(input);
+        latitude = input.readDouble();
+        longitude = input.readDouble();
+        value = input.readDouble();
+        width = WritableUtils.readVInt(input);
+        height = WritableUtils.readVInt(input);
+        x = WritableUtils.readVInt(input);
+        y = WritableUtils.readVInt(input);
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null)
+            return b == null ? 0 : -1;
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Orders cells by model, datatype, timestamp and grid index.
+     */
+    @Override
+    public int compareTo(GridCell other) {
+        int result = compare(model, other.model);
+        if (result == 0)
+            result = compare(datatype, other.datatype);
+        if (result == 0)
+            result = compare(timestamp, other.timestamp);
+        if (result == 0)
+            result = compare(y, other.y);
+        if (result == 0)
+            result = compare(x, other.x);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object)
+            return true;
+        if (!(object instanceof GridCell))
+            return false;
+        GridCell other = (GridCell) object;
+        return compareTo(other) == 0
+            && compare(unit, other.unit) == 0
+            && Double.compare(latitude, other.latitude) == 0
+            && Double.compare(longitude, other.longitude) == 0
+            && Double.compare(value, other.value) == 0
+            && width == other.width
+            && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = model == null ? 0 : model.hashCode();
+        result = 31 * result + (datatype == null ? 0 : datatype.hashCode());
+        result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+        result = 31 * result + x;
+        result = 31 * result + y;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return model + "/" + datatype + "@" + new DateTime(timestamp) + "[" + x + "," + y + "] = " + value + " " + unit;
+    }
+
+}
@@ -0,0 +1,129 @@
+package netcdf.hadoop;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.Serialization;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * The Hadoop serialization of GridCells. Model, datatype and unit are
+ * encoded with the GridCell.Dictionary of the cell dictionary key,
+ * which has to be set for the whole flow, see
+ * GridDatasetScheme.addCellSerialization. Every cell is written on its
+ * own, so cells can be sorted and spilled independently.
+ */
+public class GridCellSerialization implements Serialization<GridCell>, Configurable {
+
+    public static final String SERIALIZATIONS = "io.serializations";
+
+    private Configuration conf;
+    private GridCell.Dictionary dictionary = new GridCell.Dictionary();
+
+    /**
+     * Adds this serialization to the serializations of `conf`.
+     */
+    public static void register(Configuration conf) {
+        String name = GridCellSerialization.class.getName();
+        String[] serializations = conf.getStrings(SERIALIZATIONS);
+        if (serializations == null) {
+            conf.setStrings(SERIALIZATIONS, "org.apache.hadoop.io.serializer.WritableSerialization", name);
+            return;
+        }
+        for (String serialization: serializations) {
+            if (name.equals(serialization))
+                return;
+        }
+        conf.set(SERIALIZATIONS, conf.get(SERIALIZATIONS) + "," + name);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        JobConf job = conf instanceof JobConf ? (JobConf) conf : new JobConf(conf);
+        this.dictionary = GridCell.Dictionary.of(new GridDatasetConfiguration(job));
+    }
+
+    @Override
+    public boolean accept(Class<?> type) {
+        return GridCell.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public Serializer<GridCell> getSerializer(Class<GridCell> type) {
+        return new GridCellSerializer(dictionary);
+    }
+
+    @Override
+    public Deserializer<GridCell> getDeserializer(Class<GridCell> type) {
+        return new GridCellDeserializer(dictionary);
+    }
+
+    static class GridCellSerializer implements Serializer<GridCell> {
+
+        private final GridCell.Dictionary dictionary;
+        private DataOutputStream output;
+
+        GridCellSerializer(GridCell.Dictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void open(OutputStream output) {
+            this.output = output instanceof DataOutputStream ? (DataOutputStream) output : new DataOutputStream(output);
+        }
+
+        @Override
+        public void serialize(GridCell cell) throws IOException {
+            cell.write(output, dictionary);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+    }
+
+    static class GridCellDeserializer implements Deserializer<GridCell> {
+
+        private final GridCell.Dictionary dictionary;
+        private DataInputStream input;
+
+        GridCellDeserializer(GridCell.Dictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void open(InputStream input) {
+            this.input = input instanceof DataInputStream ? (DataInputStream) input : new DataInputStream(input);
+        }
+
+        @Override
+        public GridCell deserialize(GridCell cell) throws IOException {
+            if (cell == null)
+                cell = new GridCell();
+            cell.readFields(input, dictionary);
+            return cell;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,301 @@
+package netcdf.hadoop;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import netcdf.grid.GridDatasetCache;
+
+/**
+ * A catalog of the grid names, timestamps and shapes of datasets,
+ * used to plan jobs without opening every dataset again. Entries are
+ * keyed by url and a version of the dataset, the modification time
+ * and length of files or the ETag or Last-Modified header of remote
+ * datasets, and are kept in memory and in a properties file per url
+ * under the catalog directory. At most CAPACITY entries are kept in
+ * memory, the least recently used are read from their file again. Datasets without a version are opened
+ * every time.
+ */
+public class GridDatasetCatalog {
+
+    private static final Logger LOG = Logger.getLogger(GridDatasetCatalog.class);
+
+    private static final int CAPACITY = 1024;
+
+    @SuppressWarnings("serial")
+    private static final Map<String, Entry> ENTRIES = Collections.synchronizedMap(new LinkedHashMap<String, GridDatasetCatalog.Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GridDatasetCatalog.Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    });
+
+    public static class Entry {
+
+        private final String url;
+        private final String version;
+        private final String[] datatypes;
+        private final DateTime[] timestamps;
+        private final Map<String, GridShape> shapes;
+
+        public Entry(String url, String version, String[] datatypes, DateTime[] timestamps, Map<String, GridShape> shapes) {
+            this.url = url;
+            this.version = version;
+            this.datatypes = datatypes;
+            this.timestamps = timestamps;
+            this.shapes = shapes;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String[] getDatatypes() {
+            return datatypes;
+        }
+
+        public DateTime[] getTimestamps() {
+            return timestamps;
+        }
+
+        public Map<String, GridShape> getShapes() {
+            return shapes;
+        }
+
+    }
+
+    private final JobConf job;
+    private final File directory;
+    private final int threads;
+
+    public GridDatasetCatalog(JobConf job) {
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        this.job = job;
+        this.directory = configuration.getCatalogDirectory();
+        this.threads = configuration.getCatalogThreads();
+    }
+
+    /**
+     * Forgets the entries kept in memory.
+     */
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    /**
+     * Returns the entry of the dataset at `url`, opening the dataset
+     * only if it's not in the catalog or has changed.
+     */
+    public Entry get(String url) throws IOException {
+        String version = getVersion(url);
+        if (version == null)
+            return fetch(url, null);
+        String key = url + "@" + version;
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) {
+            entry = load(url, version);
+            if (entry == null) {
+                entry = fetch(url, version);
+                store(entry);
+            }
+            ENTRIES.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entries of the datasets at `urls`, fetched in
+     * parallel.
+     */
+    public Map<String, Entry> getAll(String... urls) throws IOException {
+        List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(Arrays.asList(urls)));
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        if (distinct.size() <= 1 || threads <= 1) {
+            for (String url: distinct)
+                entries.put(url, get(url));
+            return entries;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, distinct.size()));
+        try {
+            List<Future<Entry>> futures = new ArrayList<Future<Entry>>();
+            for (final String url: distinct) {
+                futures.add(executor.submit(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws IOException {
+                        return get(url);
+                    }
+                }));
+            }
+            for (int n = 0; n < distinct.size(); ++n)
+                entries.put(distinct.get(n), futures.get(n).get());
+            return entries;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching dataset metadata.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the version of the dataset at `url`, or null if it can't
+     * be determined.
+     */
+    String getVersion(String url) {
+        try {
+            if (GridDatasetInputFormat.isFileSystemUrl(url)) {
+                Path path = new Path(url);
+                FileStatus status = path.getFileSystem(job).getFileStatus(path);
+                return status.getModificationTime() + ":" + status.getLen();
+            }
+            String location = url.startsWith("dods:") ? "http:" + url.substring(5) : url;
+            if (!location.startsWith("http:") && !location.startsWith("https:"))
+                return null;
+            HttpURLConnection connection = (HttpURLConnection) new URL(location).openConnection();
+            try {
+                connection.setRequestMethod("HEAD");
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+                    return null;
+                String etag = connection.getHeaderField("ETag");
+                if (etag != null)
+                    return etag;
+                return connection.getHeaderField("Last-Modified");
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            LOG.warn("Can't get version of " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    File getFile(String url) {
+        return new File(directory, MD5Hash.digest(url).toString() + ".properties");
+    }
+
+    Entry load(String url, String version) {
+        File file = getFile(url);
+        if (!file.isFile())
+            return null;
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            if (!url.equals(properties.getProperty("url")) || !version.equals(properties.getProperty("version")))
+                return null;
+            String[] datatypes = StringUtils.getStrings(properties.getProperty("datatypes", ""));
+            if (datatypes == null)
+                datatypes = new String[0];
+            Map<String, GridShape> shapes = new HashMap<String, GridShape>();
+            for (String datatype: datatypes) {
+                String[] shape = properties.getProperty("shape." + datatype).split(",");
+                shapes.put(datatype, new GridShape(
+                    Integer.parseInt(shape[0]), Integer.parseInt(shape[1]),
+                    Integer.parseInt(shape[2]), Integer.parseInt(shape[3])));
+            }
+            DateTime[] timestamps = TimeHelper.parseTimes(StringUtils.getStrings(properties.getProperty("timestamps", "")));
+            return new Entry(url, version, datatypes, timestamps == null ? new DateTime[0] : timestamps, shapes);
+        } catch (Exception e) {
+            LOG.warn("Can't load catalog entry " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    void store(Entry entry) {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.getUrl());
+        properties.setProperty("version", entry.getVersion());
+        properties.setProperty("datatypes", StringUtils.arrayToString(entry.getDatatypes()));
+        properties.setProperty("timestamps", StringUtils.arrayToString(TimeHelper.formatTimes(entry.getTimestamps())));
+        for (Map.Entry<String, GridShape> shape: entry.getShapes().entrySet()) {
+            GridShape value = shape.getValue();
+            properties.setProperty("shape." + shape.getKey(),
+                                   value.getWidth() + "," + value.getHeight() + "," + value.getLevels() + "," + value.getElementSize());
+        }
+        File file = getFile(entry.getUrl());
+        File temp = new File(directory, file.getName() + ".tmp");
+        try {
+            directory.mkdirs();
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                properties.store(out, entry.getUrl());
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file))
+                    throw new IOException("Can't rename " + temp + " to " + file + ".");
+            }
+        } catch (IOException e) {
+            LOG.warn("Can't store catalog entry " + file + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    static Entry fetch(String url, String version) throws IOException {
+        LOG.debug("Reading metadata of " + url + ".");
+        GridDatasetCache cache = GridDatasetCache.getInstance();
+        GridDataset dataset = cache.acquire(url);
+        try {
+            List<GridDatatype> grids = dataset.getGrids();
+            String[] datatypes = new String[grids.size()];
+            Map<String, GridShape> shapes = new HashMap<String, GridShape>();
+            for (int n = 0; n < datatypes.length; ++n) {
+                datatypes[n] = grids.get(n).getName();
+                shapes.put(datatypes[n], GridShape.of(grids.get(n)));
+            }
+            DateTime[] timestamps = new DateTime[0];
+            if (!grids.isEmpty()) {
+                GridCoordSystem coordinates = grids.get(0).getCoordinateSystem();
+                timestamps = TimeHelper.toDateTimes(coordinates.getTimeAxis1D().getTimeDates());
+            }
+            return new Entry(url, version, datatypes, timestamps, shapes);
+        } finally {
+            cache.release(dataset);
+        }
+    }
+
+}
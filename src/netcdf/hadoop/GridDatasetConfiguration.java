@@ -1,8 +1,11 @@
 package netcdf.hadoop;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.mapred.JobConf;
 import org.joda.time.DateTime;
@@ -10,6 +13,10 @@ import org.joda.time.DateTime;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDatatype;
 import ucar.nc2.dt.grid.GridDataset;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+import netcdf.grid.GridDatasetCache;
 
 public class GridDatasetConfiguration {
 
@@ -17,6 +24,20 @@ public class GridDatasetConfiguration {
     public static final String URLS = "netcdf.url";
     public static final String DATATYPES = "netcdf.datatypes";
     public static final String TIMESTAMPS = "netcdf.timestamps";
+    public static final String SPLIT_TIMESTAMPS = "netcdf.split.timestamps";
+    public static final String SPLIT_ROWS = "netcdf.split.rows";
+    public static final String REUSE_TUPLES = "netcdf.reader.reuse";
+    public static final String BOUNDING_BOX = "netcdf.bounding-box";
+    public static final String Z_COORD = "netcdf.z-coord";
+    public static final String SOURCE_FIELDS = "netcdf.fields";
+    public static final String SKIP_MISSING = "netcdf.reader.skip-missing";
+    public static final String STATIC_MASK = "netcdf.reader.static-mask";
+    public static final String PREFETCH_DEPTH = "netcdf.reader.prefetch";
+    public static final String COMBINE_MAX_BYTES = "netcdf.combine.max-bytes";
+    public static final String COMPACT = "netcdf.reader.compact";
+    public static final String CELL_DICTIONARY = "netcdf.cell.dictionary";
+    public static final String CATALOG_DIRECTORY = "netcdf.catalog.dir";
+    public static final String CATALOG_THREADS = "netcdf.catalog.threads";
 
     public JobConf job;
 
@@ -51,22 +72,98 @@ public class GridDatasetConfiguration {
     public void configure(String model, String url, String[] datatypes, DateTime[] timestamps) {
     	addModel(model);
     	addUrl(url);
+        GridDatasetCatalog.Entry entry = null;
+        if (datatypes == null || datatypes.length == 0 || timestamps == null || timestamps.length == 0)
+            entry = getCatalogEntry(url);
     	if (datatypes == null || datatypes.length == 0) {
-            addDatatypes(GridDatasetConfiguration.datatypes(url));
+            addDatatypes(entry.getDatatypes());
     	} else {
             addDatatypes(datatypes);
     	}
     	if (timestamps == null || timestamps.length == 0) {
-            addTimestamps(GridDatasetConfiguration.timestamps(url));
+            addTimestamps(entry.getTimestamps());
     	} else {
             addTimestamps(timestamps);
     	}
     }
 
+    /**
+     * Configure all datatypes and timestamps of the datasets at `urls`,
+     * reading the metadata of the datasets in parallel. `models` and
+     * `urls` must have the same length.
+     */
+    public void configure(String[] models, String[] urls) {
+        if (models.length != urls.length)
+            throw new IllegalArgumentException("Got " + models.length + " models for " + urls.length + " urls.");
+        try {
+            new GridDatasetCatalog(job).getAll(urls);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (int n = 0; n < models.length; ++n)
+            configure(models[n], urls[n]);
+    }
+
+    private GridDatasetCatalog.Entry getCatalogEntry(String url) {
+        try {
+            return new GridDatasetCatalog(job).get(url);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the directory the metadata catalog is stored in, by
+     * default netcdf-catalog in hadoop.tmp.dir or java.io.tmpdir.
+     */
+    public File getCatalogDirectory() {
+        String directory = job.get(CATALOG_DIRECTORY);
+        if (directory == null)
+            return new File(job.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir")), "netcdf-catalog");
+        return new File(directory);
+    }
+
+    /**
+     * Returns the number of threads reading dataset metadata in
+     * parallel.
+     */
+    public int getCatalogThreads() {
+        return job.getInt(CATALOG_THREADS, 8);
+    }
+
+    public void setCatalogDirectory(File directory) {
+        job.set(CATALOG_DIRECTORY, directory.getAbsolutePath());
+    }
+
+    public void setCatalogThreads(int threads) {
+        job.setInt(CATALOG_THREADS, threads);
+    }
+
+    /**
+     * Returns the bounding box records are restricted to, or null if
+     * the whole grid is read.
+     */
+    public LatLonRect getBoundingBox() {
+        String[] corners = job.getStrings(BOUNDING_BOX);
+        if (corners == null)
+            return null;
+        return new LatLonRect(
+            new LatLonPointImpl(Double.parseDouble(corners[0]), Double.parseDouble(corners[1])),
+            new LatLonPointImpl(Double.parseDouble(corners[2]), Double.parseDouble(corners[3])));
+    }
+
     public String[][] getDatatypes() {
     	return Helper.split(job.get(DATATYPES));
     }
 
+    /**
+     * Returns the names of the fields records are made of, or null if
+     * records have all fields.
+     */
+    public String[] getFields() {
+        return job.getStrings(SOURCE_FIELDS);
+    }
+
     public String[] getModels() {
     	return job.getStrings(MODELS);
     }
@@ -75,10 +172,51 @@ public class GridDatasetConfiguration {
     	return TimeHelper.split(job.get(TIMESTAMPS));
     }
 
+    /**
+     * Returns the number of timestamps per input split, or 0 if all
+     * timestamps of a datatype are read by a single split.
+     */
+    public int getSplitTimestamps() {
+        return job.getInt(SPLIT_TIMESTAMPS, 0);
+    }
+
+    /**
+     * Returns the number of Y rows per input split, or 0 if a split
+     * covers the whole slice.
+     */
+    public int getSplitRows() {
+        return job.getInt(SPLIT_ROWS, 0);
+    }
+
     public String[] getUrls() {
     	return job.getStrings(URLS);
     }
 
+    /**
+     * Returns the z coordinate of the level that is read, or null if
+     * all levels are read.
+     */
+    public Double getZCoord() {
+        String zCoord = job.get(Z_COORD);
+        return zCoord == null ? null : Double.valueOf(zCoord);
+    }
+
+    public void setBoundingBox(LatLonRect boundingBox) {
+        LatLonPoint lowerLeft = boundingBox.getLowerLeftPoint();
+        LatLonPoint upperRight = boundingBox.getUpperRightPoint();
+        job.setStrings(BOUNDING_BOX,
+                       String.valueOf(lowerLeft.getLatitude()), String.valueOf(lowerLeft.getLongitude()),
+                       String.valueOf(upperRight.getLatitude()), String.valueOf(upperRight.getLongitude()));
+    }
+
+    public void setFields(String... fields) {
+        job.setStrings(SOURCE_FIELDS, fields);
+    }
+
+    public void setZCoord(double zCoord) {
+        job.set(Z_COORD, String.valueOf(zCoord));
+    }
+
     public void setDatatypes(String[][] datatypes) {
     	job.setStrings(DATATYPES, Helper.join(datatypes));
     }
@@ -95,10 +233,106 @@ public class GridDatasetConfiguration {
     	job.setStrings(URLS, urls);
     }
 
+    /**
+     * Returns true if record readers update a single tuple in place
+     * instead of allocating a new tuple per record.
+     */
+    public boolean isReuseTuples() {
+        return job.getBoolean(REUSE_TUPLES, false);
+    }
+
+    public void setReuseTuples(boolean reuse) {
+        job.setBoolean(REUSE_TUPLES, reuse);
+    }
+
+    /**
+     * Returns true if record readers skip cells that are NaN or match
+     * the _FillValue or missing_value of the grid.
+     */
+    public boolean isSkipMissing() {
+        return job.getBoolean(SKIP_MISSING, false);
+    }
+
+    public void setSkipMissing(boolean skip) {
+        job.setBoolean(SKIP_MISSING, skip);
+    }
+
+    /**
+     * Returns true if the missing cells of a grid are the same in every
+     * time slice, like a land mask. Record readers then compute the
+     * valid cells once from the first slice and never look at the
+     * other cells again.
+     */
+    public boolean isStaticMask() {
+        return job.getBoolean(STATIC_MASK, false);
+    }
+
+    public void setStaticMask(boolean staticMask) {
+        job.setBoolean(STATIC_MASK, staticMask);
+    }
+
+    /**
+     * Returns the number of time slices record readers read ahead on a
+     * background thread while emitting the records of the current
+     * slice, or 0 to read every slice when it is needed.
+     */
+    public int getPrefetchDepth() {
+        return job.getInt(PREFETCH_DEPTH, 0);
+    }
+
+    public void setPrefetchDepth(int depth) {
+        job.setInt(PREFETCH_DEPTH, depth);
+    }
+
+    /**
+     * Returns true if record readers emit tuples made of a single
+     * GridCell instead of a field per value.
+     */
+    public boolean isCompact() {
+        return job.getBoolean(COMPACT, false);
+    }
+
+    public void setCompact(boolean compact) {
+        job.setBoolean(COMPACT, compact);
+    }
+
+    /**
+     * Returns the strings, like models, datatypes and units,
+     * GridCellSerialization encodes as an index. All other strings are
+     * written inline.
+     */
+    public String[] getCellDictionary() {
+        return job.getStrings(CELL_DICTIONARY);
+    }
+
+    public void setCellDictionary(String... strings) {
+        job.setStrings(CELL_DICTIONARY, strings);
+    }
+
+    /**
+     * Returns the estimated number of bytes CombineGridDatasetInputFormat
+     * packs into a single split.
+     */
+    public long getCombineMaxBytes() {
+        return job.getLong(COMBINE_MAX_BYTES, 128L * 1024 * 1024);
+    }
+
+    public void setCombineMaxBytes(long bytes) {
+        job.setLong(COMBINE_MAX_BYTES, bytes);
+    }
+
+    public void setSplitTimestamps(int timestamps) {
+        job.setInt(SPLIT_TIMESTAMPS, timestamps);
+    }
+
+    public void setSplitRows(int rows) {
+        job.setInt(SPLIT_ROWS, rows);
+    }
+
     public static String[] datatypes(String url) {
         GridDataset dataset = null;
         try {
-            dataset = GridDataset.open(url);
+            dataset = GridDatasetCache.getInstance().acquire(url);
             List<GridDatatype> datatypes = dataset.getGrids();
             ArrayList<String> names = new ArrayList<String>();
             for (int n = 0; n < datatypes.size(); ++n)
@@ -107,30 +341,41 @@ public class GridDatasetConfiguration {
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            closeDataset(dataset);
+            releaseDataset(dataset);
         }
     }
 
     public static DateTime[] timestamps(String url) {
         GridDataset dataset = null;
         try {
-            dataset = GridDataset.open(url);
+            dataset = GridDatasetCache.getInstance().acquire(url);
             GridCoordSystem coordinates = dataset.getGrids().get(0).getCoordinateSystem();
             return TimeHelper.toDateTimes(coordinates.getTimeAxis1D().getTimeDates());
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            closeDataset(dataset);
+            releaseDataset(dataset);
         }
 
     }
 
-    private static void closeDataset(GridDataset dataset) {
+    public static Map<String, GridShape> shapes(String url) {
+        GridDataset dataset = null;
         try {
-            if (dataset != null) dataset.close();
+            dataset = GridDatasetCache.getInstance().acquire(url);
+            Map<String, GridShape> shapes = new HashMap<String, GridShape>();
+            for (GridDatatype datatype: dataset.getGrids())
+                shapes.put(datatype.getName(), GridShape.of(datatype));
+            return shapes;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            releaseDataset(dataset);
         }
     }
 
+    private static void releaseDataset(GridDataset dataset) {
+        if (dataset != null) GridDatasetCache.getInstance().release(dataset);
+    }
+
 }
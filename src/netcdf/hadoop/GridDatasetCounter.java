@@ -0,0 +1,47 @@
+package netcdf.hadoop;
+
+/**
+ * The Hadoop counters published by GridDatasetRecordReader.
+ */
+public enum GridDatasetCounter {
+
+    BYTES_READ,
+    SLICES_READ,
+    RECORDS,
+    MISSING_SKIPPED,
+    DATASET_OPEN_MILLIS,
+    SLICE_READ_MILLIS;
+
+    /**
+     * A histogram of the time it takes to read a slice, one counter
+     * per bucket, counting the slices read in that time.
+     */
+    public enum SliceReadLatency {
+
+        UNDER_10_MS(10),
+        UNDER_100_MS(100),
+        UNDER_1_SEC(1000),
+        UNDER_10_SEC(10000),
+        UNDER_1_MIN(60000),
+        OVER_1_MIN(Long.MAX_VALUE);
+
+        private final long limit;
+
+        private SliceReadLatency(long limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Returns the bucket of a slice read that took `millis`.
+         */
+        public static SliceReadLatency of(long millis) {
+            for (SliceReadLatency bucket: values()) {
+                if (millis < bucket.limit)
+                    return bucket;
+            }
+            return OVER_1_MIN;
+        }
+
+    }
+
+}
@@ -3,10 +3,28 @@ package netcdf.hadoop;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.InputFormat;
@@ -22,27 +40,82 @@ import org.joda.time.format.PeriodFormatter;
 import org.joda.time.format.PeriodFormatterBuilder;
 
 import ucar.ma2.Array;
-import ucar.ma2.IndexIterator;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDatatype;
 import ucar.nc2.dt.grid.GridDataset;
 import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
 import netcdf.cascading.TupleWrapper;
+import netcdf.grid.GridDatasetCache;
+import netcdf.grid.LatLonTable;
 import cascading.tuple.Tuple;
 
 public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWrapper> {
 
     private static final Logger LOG = Logger.getLogger(GridDatasetInputFormat.class);
 
+    /**
+     * How long close waits for a slice read on the prefetch thread.
+     */
+    private static final long PREFETCH_TIMEOUT_SECONDS = 60;
+
+    /**
+     * The names of the fields of a record, in the order they are
+     * emitted when no field subset is configured.
+     */
+    public static final String[] FIELD_NAMES = {
+        "model", "datatype", "timestamp", "latitude", "longitude", "value", "unit", "width", "height", "x", "y"
+    };
+
+    public static final int FIELDS = FIELD_NAMES.length;
+
+    public static final int MODEL = 0;
+    public static final int DATATYPE = 1;
+    public static final int TIMESTAMP = 2;
+    public static final int LATITUDE = 3;
+    public static final int LONGITUDE = 4;
+    public static final int VALUE = 5;
+    public static final int UNIT = 6;
+    public static final int WIDTH = 7;
+    public static final int HEIGHT = 8;
+    public static final int X = 9;
+    public static final int Y = 10;
+
+    /**
+     * Returns the indexes into FIELD_NAMES of the field `names`, or
+     * all fields if `names` is null.
+     */
+    public static int[] getFieldIndexes(String[] names) {
+        if (names == null)
+            names = FIELD_NAMES;
+        List<String> all = Arrays.asList(FIELD_NAMES);
+        int[] fields = new int[names.length];
+        for (int n = 0; n < names.length; ++n) {
+            fields[n] = all.indexOf(names[n]);
+            if (fields[n] < 0)
+                throw new IllegalArgumentException("Unknown field " + names[n] + ", expected one of " + all + ".");
+        }
+        return fields;
+    }
+
     public static class GridDatasetRecordReader implements RecordReader<NullWritable, TupleWrapper> {
 
         private GridCoordSystem coords;
+        private LatLonTable locations;
         private GridDataset dataset;
         private GridDatasetInputSplit split;
         private GridDatatype datatype;
+        private GridDatatype source;
 
         private Array slice;
-        private IndexIterator iterator;
+        private Index index;
+        private int cell;
+        private int cells;
+        private int current = -1;
         private DateTime splitStartedAt;
         private DateTime timestamp;
         private Iterator<DateTime> timestamps;
@@ -51,15 +124,57 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
         private String model;
         private String variable;
 
+        private int firstColumn;
+        private int columns;
+        private int firstRow;
+        private int rows;
+        private int x;
+        private int row;
+
+        private int[] fields;
+        private int[] changing;
+        private boolean reuse;
+        private boolean compact;
+        private Tuple reused;
+        private Long boxedWidth;
+        private Long boxedHeight;
+        private Integer[] xs;
+        private Integer[] ys;
+        private Double[] latitudes;
+        private Double[] longitudes;
+
+        private boolean skipMissing;
+        private boolean staticMask;
+        private BitSet mask;
+
         private long pos = 0;
-        private long total = 0;
+        private long read = 0;
+        private long skipped = 0;
+        private volatile long total = 0;
+
+        private int prefetchDepth;
+        private ExecutorService prefetcher;
+        private ArrayDeque<DateTime> prefetchedTimestamps;
+        private ArrayDeque<Future<Array>> prefetchedSlices;
+
+        private Reporter reporter;
+        private long reportedRecords = 0;
+        private long reportedSkipped = 0;
 
 	private PeriodFormatter formatter;
 	private DateTime sliceStartedAt;
 
         protected GridDatasetRecordReader(GridDatasetInputSplit split, JobConf job) throws IOException {
+            this(split, job, Reporter.NULL);
+        }
+
+        protected GridDatasetRecordReader(GridDatasetInputSplit split, JobConf job, Reporter reporter) throws IOException {
             LOG.debug("NetCDF Dataset: " + split.getUrl());
-            this.dataset = GridDataset.open(split.getUrl());
+            GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+            this.reporter = reporter != null ? reporter : Reporter.NULL;
+            long openStartedAt = System.currentTimeMillis();
+            this.dataset = GridDatasetCache.getInstance().acquire(split.getUrl());
+            this.reporter.incrCounter(GridDatasetCounter.DATASET_OPEN_MILLIS, System.currentTimeMillis() - openStartedAt);
             this.datatype = dataset.findGridDatatype(split.getDatatype());
             this.split = split;
             this.splitStartedAt = new DateTime();
@@ -68,6 +183,56 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             this.model = split.getModel();
             this.variable = split.getDatatype();
             this.coords = datatype.getCoordinateSystem();
+            this.locations = LatLonTable.of(coords);
+            this.fields = getFieldIndexes(configuration.getFields());
+            this.changing = getChangingPositions(fields);
+            this.reuse = configuration.isReuseTuples();
+            this.compact = configuration.isCompact();
+            this.skipMissing = configuration.isSkipMissing();
+            this.staticMask = configuration.isStaticMask();
+            this.prefetchDepth = configuration.getPrefetchDepth();
+            this.boxedWidth = getWidth();
+            this.boxedHeight = getHeight();
+            this.firstColumn = 0;
+            this.columns = (int) getWidth();
+            this.firstRow = split.getFirstRow();
+            this.rows = split.getRowCount() > 0 ? split.getRowCount() : (int) getHeight();
+            restrict(configuration.getBoundingBox());
+            Range zRange = getZRange(configuration.getZCoord());
+            if (isEmpty()) {
+                this.source = datatype;
+                this.timestamps = Collections.<DateTime>emptyList().iterator();
+            } else if (columns < getWidth() || rows < getHeight() || zRange != null) {
+                this.source = makeSubset(datatype, zRange, range(firstRow, rows), range(firstColumn, columns));
+            } else {
+                this.source = datatype;
+            }
+            this.xs = new Integer[columns];
+            for (int n = 0; n < xs.length; ++n)
+                xs[n] = firstColumn + n;
+            this.ys = new Integer[rows];
+            for (int n = 0; n < ys.length; ++n)
+                ys[n] = firstRow + n;
+            if (locations.isSeparable()) {
+                this.latitudes = new Double[rows];
+                for (int n = 0; n < latitudes.length; ++n)
+                    latitudes[n] = locations.getLatitude(0, firstRow + n);
+                this.longitudes = new Double[columns];
+                for (int n = 0; n < longitudes.length; ++n)
+                    longitudes[n] = locations.getLongitude(firstColumn + n, 0);
+            }
+            if (prefetchDepth > 0 && !isEmpty()) {
+                this.prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "netcdf-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                this.prefetchedTimestamps = new ArrayDeque<DateTime>();
+                this.prefetchedSlices = new ArrayDeque<Future<Array>>();
+            }
             this.formatter = new PeriodFormatterBuilder().
 		appendMinutes().appendSuffix(" min, ").
 		appendSeconds().appendSuffix(" sec, ").
@@ -77,14 +242,61 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             LOG.debug("      Datatype: " + datatype.getName());
             LOG.debug("   Description: " + datatype.getDescription());
             LOG.debug("   Coordinates: " + datatype.getCoordinateSystem());
+            LOG.debug("       Section: x=" + firstColumn + "+" + columns + ", y=" + firstRow + "+" + rows + ", z=" + zRange);
+        }
+
+        /**
+         * Restricts the columns and rows read by this reader to the
+         * cells inside the bounding box.
+         */
+        private void restrict(LatLonRect boundingBox) throws IOException {
+            if (boundingBox == null)
+                return;
+            try {
+                List<Range> ranges = coords.getRangesFromLatLonRect(boundingBox);
+                Range yRange = ranges.get(0);
+                Range xRange = ranges.get(1);
+                int lastRow = Math.min(firstRow + rows, yRange.last() + 1);
+                firstColumn = xRange.first();
+                columns = xRange.length();
+                firstRow = Math.max(firstRow, yRange.first());
+                rows = Math.max(0, lastRow - firstRow);
+            } catch (InvalidRangeException e) {
+                columns = rows = 0;
+            }
+        }
+
+        private Range getZRange(Double zCoord) throws IOException {
+            CoordinateAxis1D vertical = coords.getVerticalAxis();
+            if (zCoord == null || vertical == null)
+                return null;
+            int z = vertical.findCoordElement(zCoord);
+            if (z < 0)
+                throw new IOException("Can't find z coordinate " + zCoord + " in " + datatype.getName() + ".");
+            return range(z, 1);
+        }
+
+        boolean isEmpty() {
+            return columns <= 0 || rows <= 0;
         }
 
         @Override
         public void close() throws IOException {
             this.slice = null;
-            this.iterator = null;
-            this.dataset.close();
-            LOG.debug("   Total Bytes: " + StringUtils.byteDesc(total) + ", " + pos + " records");
+            this.index = null;
+            this.mask = null;
+            try {
+                if (prefetcher != null) {
+                    prefetcher.shutdownNow();
+                    prefetchedTimestamps.clear();
+                    prefetchedSlices.clear();
+                    awaitPrefetcher();
+                }
+            } finally {
+                reportRecords();
+                GridDatasetCache.getInstance().release(dataset);
+            }
+            LOG.debug("   Total Bytes: " + StringUtils.byteDesc(total) + ", " + pos + " records, " + skipped + " missing");
             LOG.debug("Total Duration: " + formatter.print(new Period(splitStartedAt, new DateTime())));
             LOG.debug("NetCDF dataset " + split.getUrl() + " closed.");
         }
@@ -96,7 +308,7 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
 
         @Override
         public TupleWrapper createValue() {
-            return new TupleWrapper(new Tuple());
+            return new TupleWrapper(reuse ? Tuple.size(fields.length) : new Tuple());
         }
 
         @Override
@@ -106,11 +318,43 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
 
         @Override
         public float getProgress() throws IOException {
-            return slice == null ? 0 : (pos / (float) (slice.getSize() * split.getTimestamps().length));
+            if (isEmpty())
+                return 1;
+            return slice == null ? 0 : (read / (float) (slice.getSize() * split.getTimestamps().length));
+        }
+
+        /**
+         * Returns the number of missing cells that have been skipped.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns the location of the cell at index `cell` of a slice,
+         * see getX(long).
+         */
+        public LatLonPoint getLocation(long cell) {
+            return locations.getLatLon(getX(cell), getY(cell));
+        }
+
+        /**
+         * Returns the location of the last record read.
+         */
+        public LatLonPoint getLocation() {
+            return getLocation(current);
+        }
+
+        private Double getLatitude() {
+            if (latitudes != null)
+                return latitudes[row];
+            return locations.getLatitude(firstColumn + x, firstRow + row);
         }
 
-        public LatLonPoint getLocation(long pos) {
-            return coords.getLatLon(getX(pos), getY(pos));
+        private Double getLongitude() {
+            if (longitudes != null)
+                return longitudes[x];
+            return locations.getLongitude(firstColumn + x, firstRow + row);
         }
 
         public long getHeight() {
@@ -125,65 +369,327 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             return coords.getXHorizAxis().getSize();
         }
 
-        public int getX(long pos) {
-            return (int) (pos % this.getWidth());
+        /**
+         * Returns the x index of the cell at index `cell` of a slice
+         * read by this split, counting cells in row-major order. This is
+         * not the record position, which doesn't count skipped cells.
+         */
+        public int getX(long cell) {
+            return firstColumn + (int) (cell % columns);
+        }
+
+        /**
+         * Returns the y index of the cell at index `cell` of a slice,
+         * see getX(long).
+         */
+        public int getY(long cell) {
+            return firstRow + (int) ((cell / columns) % rows);
+        }
+
+        /**
+         * Returns the x index of the last record read.
+         */
+        public int getX() {
+            return getX(current);
         }
 
-        public int getY(long pos) {
-            return (int) ((pos / this.getWidth()) % getHeight());
+        /**
+         * Returns the y index of the last record read.
+         */
+        public int getY() {
+            return getY(current);
         }
 
         @Override
         public boolean next(NullWritable key, TupleWrapper value) throws IOException {
 
-            if (iterator == null || !iterator.hasNext()) {
+            while (true) {
 
-            	iterator = null;
+                if (slice == null || cell >= cells) {
+
+                    if (!hasNextSlice()) {
+                        return false;
+                    }
+
+                    if (sliceStartedAt != null) {
+                        LOG.debug("      Duration: " + formatter.print(new Period(sliceStartedAt, new DateTime())));
+                    }
+
+                    reportRecords();
+                    sliceStartedAt = new DateTime();
+                    slice = nextSlice();
+                    index = slice.getIndex();
+                    cells = (int) slice.getSize();
+                    cell = 0;
+                    x = 0;
+                    row = 0;
+                    if (skipMissing && staticMask && mask == null)
+                        mask = getValidMask(slice);
 
-                if (!timestamps.hasNext()) {
-                    return false;
                 }
 
-                if (sliceStartedAt != null) {
-		    LOG.debug("      Duration: " + formatter.print(new Period(sliceStartedAt, new DateTime())));
+                if (!skipMissing)
+                    break;
+
+                int next = nextValid(cell);
+                skipped += next - cell;
+                read += next - cell;
+                if (next != cell) {
+                    cell = next;
+                    x = cell % columns;
+                    row = (cell / columns) % rows;
                 }
+                if (cell < cells)
+                    break;
 
-                sliceStartedAt = new DateTime();
-                slice = readDataSlice(timestamp = timestamps.next());
-                iterator = slice.getIndexIterator();
+            }
 
+            index.setCurrentCounter(cell);
+            Object data = slice.getObject(index);
+            if (compact) {
+                setCell(value, data);
+            } else if (reuse) {
+                setTuple(value, data);
+            } else {
+                value.tuple = newTuple(data);
             }
 
-            LatLonPoint location = this.getLocation(pos);
-
-            value.tuple = new Tuple();
-            value.tuple.add(model);
-            value.tuple.add(variable);
-            value.tuple.add(timestamp);
-            value.tuple.add(location.getLatitude());
-            value.tuple.add(location.getLongitude());
-            value.tuple.add(iterator.next());
-            value.tuple.add(unit);
-            value.tuple.add(getWidth());
-            value.tuple.add(getHeight());
-            value.tuple.add(getX(pos));
-            value.tuple.add(getY(pos));
+            current = cell++;
+            if (++x == columns) {
+                x = 0;
+                if (++row == rows)
+                    row = 0;
+            }
 
+            read++;
             pos++;
             return true;
 
         }
 
+        private boolean hasNextSlice() {
+            return timestamps.hasNext() || (prefetchedSlices != null && !prefetchedSlices.isEmpty());
+        }
+
+        /**
+         * Returns the next time slice and sets the current timestamp.
+         * With prefetching, up to prefetchDepth slices are read ahead
+         * in order on the prefetch thread, so at most that many slices
+         * besides the current one are held in memory.
+         */
+        private Array nextSlice() throws IOException {
+            if (prefetcher == null)
+                return readDataSlice(timestamp = timestamps.next());
+            prefetch();
+            timestamp = prefetchedTimestamps.poll();
+            Future<Array> future = prefetchedSlices.poll();
+            prefetch();
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading slice " + timestamp + ".", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Wait for a slice read in progress on the prefetch thread, it
+         * still uses the dataset. Throws an IOException if the thread
+         * doesn't terminate, after which close still releases the
+         * dataset so it isn't leaked.
+         */
+        private void awaitPrefetcher() throws IOException {
+            try {
+                if (!prefetcher.awaitTermination(PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                    throw new IOException("Prefetch thread of " + split.getUrl() + " did not terminate.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the prefetch thread of " + split.getUrl() + ".", e);
+            }
+        }
+
+        private void prefetch() {
+            while (prefetchedSlices.size() < prefetchDepth && timestamps.hasNext()) {
+                final DateTime next = timestamps.next();
+                prefetchedTimestamps.add(next);
+                prefetchedSlices.add(prefetcher.submit(new Callable<Array>() {
+                    @Override
+                    public Array call() throws IOException {
+                        return readDataSlice(next);
+                    }
+                }));
+            }
+        }
+
+        /**
+         * Publishes the records emitted and missing cells skipped since
+         * the last call. Counters are updated once per slice, not per
+         * record, to keep them off the hot path.
+         */
+        private void reportRecords() {
+            if (pos > reportedRecords) {
+                reporter.incrCounter(GridDatasetCounter.RECORDS, pos - reportedRecords);
+                reportedRecords = pos;
+            }
+            if (skipped > reportedSkipped) {
+                reporter.incrCounter(GridDatasetCounter.MISSING_SKIPPED, skipped - reportedSkipped);
+                reportedSkipped = skipped;
+            }
+        }
+
+        /**
+         * Returns the first cell at or after `cell` that isn't missing,
+         * or the number of cells if there is none. With a static mask,
+         * cells that were missing in the first slice are skipped
+         * without looking at their values, which skips whole rows of
+         * land at once.
+         */
+        private int nextValid(int cell) {
+            while (cell < cells) {
+                if (mask != null) {
+                    cell = mask.nextSetBit(cell);
+                    if (cell < 0 || cell >= cells)
+                        return cells;
+                }
+                index.setCurrentCounter(cell);
+                if (!isMissing(slice.getDouble(index)))
+                    return cell;
+                cell++;
+            }
+            return cells;
+        }
+
+        private boolean isMissing(double value) {
+            return Double.isNaN(value) || datatype.isMissingData(value);
+        }
+
+        private BitSet getValidMask(Array slice) {
+            int size = (int) slice.getSize();
+            BitSet valid = new BitSet(size);
+            Index index = slice.getIndex();
+            for (int n = 0; n < size; ++n) {
+                index.setCurrentCounter(n);
+                if (!isMissing(slice.getDouble(index)))
+                    valid.set(n);
+            }
+            LOG.debug("    Valid Mask: " + valid.cardinality() + " of " + size + " cells");
+            return valid;
+        }
+
+        private Object getField(int field, Object data) {
+            switch (field) {
+            case MODEL: return model;
+            case DATATYPE: return variable;
+            case TIMESTAMP: return timestamp;
+            case LATITUDE: return getLatitude();
+            case LONGITUDE: return getLongitude();
+            case VALUE: return data;
+            case UNIT: return unit;
+            case WIDTH: return boxedWidth;
+            case HEIGHT: return boxedHeight;
+            case X: return xs[x];
+            case Y: return ys[row];
+            default: throw new IllegalArgumentException("Invalid field: " + field);
+            }
+        }
+
+        private Tuple newTuple(Object data) {
+            Tuple tuple = new Tuple();
+            for (int field: fields)
+                tuple.add(getField(field, data));
+            return tuple;
+        }
+
+        /**
+         * Updates the tuple owned by this reader in place. The fields
+         * that are constant for the split are only set once.
+         */
+        private void setTuple(TupleWrapper value, Object data) {
+            if (value.tuple != reused) {
+                reused = value.tuple = Tuple.size(fields.length);
+                for (int n = 0; n < fields.length; ++n)
+                    reused.set(n, getField(fields[n], data));
+            } else {
+                for (int n: changing)
+                    reused.set(n, getField(fields[n], data));
+            }
+        }
+
+        /**
+         * Sets the tuple of `value` to a single GridCell, updated in
+         * place when tuples are reused.
+         */
+        private void setCell(TupleWrapper value, Object data) {
+            GridCell cell;
+            if (reuse && value.tuple != null && value.tuple == reused) {
+                cell = (GridCell) reused.getObject(0);
+            } else {
+                cell = new GridCell();
+                value.tuple = new Tuple(cell);
+                if (reuse)
+                    reused = value.tuple;
+            }
+            cell.set(model, variable, unit, timestamp.getMillis(), getLatitude(), getLongitude(),
+                     ((Number) data).doubleValue(), boxedWidth.intValue(), boxedHeight.intValue(), xs[x], ys[row]);
+        }
+
         Array readDataSlice(DateTime timestamp) throws IOException {
             int timeIndex = coords.getTimeAxis1D().findTimeIndexFromDate(timestamp.toDate());
-            Array slice = datatype.readDataSlice(timeIndex, -1, -1, -1);
-	    //            Array slice = datatype.readVolumeData(timeIndex);
+            Array slice;
+            long startedAt = System.currentTimeMillis();
+            // the dataset is shared with other readers through the cache
+            synchronized (GridDatasetCache.lock(datatype)) {
+                slice = source.readDataSlice(timeIndex, -1, -1, -1);
+            }
+            long millis = System.currentTimeMillis() - startedAt;
+            reporter.incrCounter(GridDatasetCounter.BYTES_READ, slice.getSizeBytes());
+            reporter.incrCounter(GridDatasetCounter.SLICES_READ, 1);
+            reporter.incrCounter(GridDatasetCounter.SLICE_READ_MILLIS, millis);
+            reporter.incrCounter(GridDatasetCounter.SliceReadLatency.of(millis), 1);
             LOG.debug("     Timestamp: " + timestamp);
             LOG.debug("         Bytes: " + StringUtils.byteDesc(slice.getSizeBytes()) + ", " + slice.getSize() + " records");
             total += slice.getSizeBytes();
             return slice;
         }
 
+        static Range range(int first, int length) throws IOException {
+            try {
+                return new Range(first, first + length - 1);
+            } catch (InvalidRangeException e) {
+                throw new IOException("Invalid range " + first + "+" + length + ".", e);
+            }
+        }
+
+        static GridDatatype makeSubset(GridDatatype datatype, Range zRange, Range yRange, Range xRange) throws IOException {
+            try {
+                return datatype.makeSubset(null, null, null, zRange, yRange, xRange);
+            } catch (InvalidRangeException e) {
+                throw new IOException("Invalid section z=" + zRange + ", y=" + yRange + ", x=" + xRange + " for " + datatype.getName() + ".", e);
+            }
+        }
+
+        /**
+         * Returns the positions of the fields that change from record
+         * to record.
+         */
+        static int[] getChangingPositions(int[] fields) {
+            int count = 0;
+            int[] positions = new int[fields.length];
+            for (int n = 0; n < fields.length; ++n) {
+                switch (fields[n]) {
+                case MODEL: case DATATYPE: case UNIT: case WIDTH: case HEIGHT:
+                    break;
+                default:
+                    positions[count++] = n;
+                }
+            }
+            return Arrays.copyOf(positions, count);
+        }
+
     }
 
     protected static class GridDatasetInputSplit implements InputSplit {
@@ -191,15 +697,25 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
     	private String model;
     	private String url;
     	private String datatype;
+    	private int firstRow;
+    	private int rowCount;
+    	private long length;
+    	private String[] hosts = new String[0];
     	private DateTime[] timestamps;
 
         public GridDatasetInputSplit() {
         }
 
         public GridDatasetInputSplit(String model, String dataset, String datatype, DateTime... timestamps) {
+            this(model, dataset, datatype, 0, 0, timestamps);
+        }
+
+        public GridDatasetInputSplit(String model, String dataset, String datatype, int firstRow, int rowCount, DateTime... timestamps) {
             this.model = model;
             this.url = dataset;
             this.datatype = datatype;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
             this.timestamps = timestamps;
         }
 
@@ -207,14 +723,44 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             return datatype;
         }
 
+        /**
+         * Returns the index of the first Y row read by this split.
+         */
+        public int getFirstRow() {
+            return firstRow;
+        }
+
+        /**
+         * Returns the number of Y rows read by this split, or 0 if the
+         * split reads whole slices.
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the estimated number of bytes read by this split.
+         */
         @Override
         public long getLength() throws IOException {
-            return 1;
+            return length;
         }
 
+        /**
+         * Returns the hosts storing the blocks of the dataset, the host
+         * with the most bytes first. Only known at planning time.
+         */
         @Override
         public String[] getLocations() throws IOException {
-            return new String[]{};
+            return hosts;
+        }
+
+        public void setLength(long length) {
+            this.length = length;
+        }
+
+        public void setLocations(String[] hosts) {
+            this.hosts = hosts;
         }
 
         public String getModel() {
@@ -234,6 +780,9 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             model = WritableUtils.readString(input);
             url = WritableUtils.readString(input);
             datatype = WritableUtils.readString(input);
+            firstRow = WritableUtils.readVInt(input);
+            rowCount = WritableUtils.readVInt(input);
+            length = WritableUtils.readVLong(input);
             timestamps = TimeHelper.parseTimes(WritableUtils.readStringArray(input));
         }
 
@@ -242,6 +791,9 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
             WritableUtils.writeString(output, model);
             WritableUtils.writeString(output, url);
             WritableUtils.writeString(output, datatype);
+            WritableUtils.writeVInt(output, firstRow);
+            WritableUtils.writeVInt(output, rowCount);
+            WritableUtils.writeVLong(output, length);
             WritableUtils.writeStringArray(output, TimeHelper.formatTimes(timestamps));
         }
 
@@ -249,7 +801,7 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
 
     @Override
     public RecordReader<NullWritable, TupleWrapper> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
-        return new GridDatasetRecordReader((GridDatasetInputSplit) split, job);
+        return new GridDatasetRecordReader((GridDatasetInputSplit) split, job, reporter);
     }
 
     @Override
@@ -257,30 +809,81 @@ public class GridDatasetInputFormat implements InputFormat<NullWritable, TupleWr
 
         GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
         ArrayList<InputSplit> splits = new ArrayList<InputSplit>();
+        int timestampsPerSplit = configuration.getSplitTimestamps();
+        int rowsPerSplit = configuration.getSplitRows();
+        Map<String, GridDatasetCatalog.Entry> entries = new GridDatasetCatalog(job).getAll(configuration.getUrls());
+        Map<String, String[]> hosts = new HashMap<String, String[]>();
 
         for (int i = 0; i < configuration.getModels().length; ++i) {
+            String model = configuration.getModels()[i];
+            String url = configuration.getUrls()[i];
+            if (!hosts.containsKey(url))
+                hosts.put(url, getHosts(job, url));
             for (String datatype: configuration.getDatatypes()[i]) {
-                String model = configuration.getModels()[i];
-                String url = configuration.getUrls()[i];
+                GridShape shape = entries.get(url).getShapes().get(datatype);
+                if (shape == null)
+                    throw new IOException("Can't find datatype " + datatype + " in " + url + ".");
                 DateTime[] timestamps = configuration.getTimestamps()[i];
-                splits.add(new GridDatasetInputSplit(model, url, datatype, timestamps));
+                int height = shape.getHeight();
+                for (DateTime[] partition: TimeHelper.partition(timestamps, timestampsPerSplit)) {
+                    if (rowsPerSplit > 0 && rowsPerSplit < height) {
+                        for (int row = 0; row < height; row += rowsPerSplit) {
+                            int rows = Math.min(rowsPerSplit, height - row);
+                            GridDatasetInputSplit split = new GridDatasetInputSplit(model, url, datatype, row, rows, partition);
+                            split.setLength(shape.estimateBytes(rows, partition.length));
+                            split.setLocations(hosts.get(url));
+                            splits.add(split);
+                        }
+                    } else {
+                        GridDatasetInputSplit split = new GridDatasetInputSplit(model, url, datatype, partition);
+                        split.setLength(shape.estimateBytes(0, partition.length));
+                        split.setLocations(hosts.get(url));
+                        splits.add(split);
+                    }
+                }
             }
         }
 
-        // for (int i = 0; i < configuration.getModels().length; ++i) {
-        //     for (String datatype: configuration.getDatatypes()[i]) {
-        //     	for (DateTime timestamp: configuration.getTimestamps()[i]) {
-        //             String model = configuration.getModels()[i];
-        //             String url = configuration.getUrls()[i];
-        //             DateTime[] timestamps = {timestamp};
-        //             splits.add(new GridDatasetInputSplit(model, url, datatype, timestamps));
+        LOG.debug("Planned " + splits.size() + " splits (" + timestampsPerSplit + " timestamps, " + rowsPerSplit + " rows per split).");
+        return splits.toArray(new InputSplit[0]);
 
-        //     	}
-        //     }
-        // }
+    }
 
-        return splits.toArray(new InputSplit[0]);
+    /**
+     * Returns the hosts of the blocks of the dataset at `url`, ordered
+     * by the number of bytes they store. Only HDFS and local files have
+     * block locations, for any other url an empty array is returned.
+     */
+    static String[] getHosts(JobConf job, String url) {
+        if (!isFileSystemUrl(url))
+            return new String[0];
+        try {
+            Path path = new Path(url);
+            FileSystem fs = path.getFileSystem(job);
+            FileStatus status = fs.getFileStatus(path);
+            final Map<String, Long> bytes = new HashMap<String, Long>();
+            for (BlockLocation block: fs.getFileBlockLocations(status, 0, status.getLen())) {
+                for (String host: block.getHosts()) {
+                    Long sum = bytes.get(host);
+                    bytes.put(host, (sum == null ? 0 : sum) + block.getLength());
+                }
+            }
+            List<String> hosts = new ArrayList<String>(bytes.keySet());
+            Collections.sort(hosts, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return bytes.get(b).compareTo(bytes.get(a));
+                }
+            });
+            return hosts.toArray(new String[0]);
+        } catch (IOException e) {
+            LOG.warn("Can't get block locations of " + url + ": " + e.getMessage());
+            return new String[0];
+        }
+    }
 
+    static boolean isFileSystemUrl(String url) {
+        return url.startsWith("hdfs:") || url.startsWith("file:") || !url.contains("://");
     }
 
     public static void setInput(JobConf job, String model, String url) {
@@ -0,0 +1,65 @@
+package netcdf.hadoop;
+
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * The shape of a single time slice of a grid, used to estimate the
+ * number of bytes an input split has to read.
+ */
+public class GridShape {
+
+    private final int width;
+    private final int height;
+    private final int levels;
+    private final int elementSize;
+
+    public GridShape(int width, int height, int levels, int elementSize) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.elementSize = elementSize;
+    }
+
+    public static GridShape of(GridDatatype datatype) {
+        GridCoordSystem coords = datatype.getCoordinateSystem();
+        CoordinateAxis1D vertical = coords.getVerticalAxis();
+        return new GridShape(
+            (int) coords.getXHorizAxis().getSize(),
+            (int) coords.getYHorizAxis().getSize(),
+            vertical == null ? 1 : (int) vertical.getSize(),
+            datatype.getDataType().getSize());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getElementSize() {
+        return elementSize;
+    }
+
+    /**
+     * Returns the estimated number of bytes of `timestamps` slices
+     * with `rows` Y rows each, or whole slices if `rows` is 0.
+     */
+    public long estimateBytes(int rows, int timestamps) {
+        long height = rows > 0 ? Math.min(rows, this.height) : this.height;
+        return (long) width * height * levels * elementSize * timestamps;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "x" + levels + " (" + elementSize + " bytes)";
+    }
+
+}
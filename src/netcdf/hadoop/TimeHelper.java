@@ -61,6 +61,15 @@ public class TimeHelper {
         return times.toArray(new DateTime[0]);
     }
 
+    public static DateTime[][] partition(DateTime[] times, int size) {
+        if (size <= 0 || times.length <= size)
+            return new DateTime[][]{times};
+        List<DateTime[]> partitions = new ArrayList<DateTime[]>();
+        for (int n = 0; n < times.length; n += size)
+            partitions.add(Arrays.copyOfRange(times, n, Math.min(n + size, times.length)));
+        return partitions.toArray(new DateTime[0][]);
+    }
+
     public static DateTime[] parseTimes(String... strings) {
         if (strings == null) return null;
         List<DateTime> times = new ArrayList<DateTime>();
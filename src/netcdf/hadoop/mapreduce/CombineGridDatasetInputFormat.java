@@ -0,0 +1,247 @@
+package netcdf.hadoop.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import netcdf.cascading.TupleWrapper;
+import netcdf.hadoop.CombineGridDatasetInputFormat.CombineGridDatasetInputSplit;
+
+/**
+ * The CombineGridDatasetInputFormat of the mapreduce API. Splits are
+ * planned and read by netcdf.hadoop.CombineGridDatasetInputFormat and
+ * wrapped for the new API, counters are published through the task
+ * attempt context.
+ */
+public class CombineGridDatasetInputFormat extends InputFormat<NullWritable, TupleWrapper> {
+
+    private final netcdf.hadoop.CombineGridDatasetInputFormat format = new netcdf.hadoop.CombineGridDatasetInputFormat();
+
+    /**
+     * Wraps a CombineGridDatasetInputSplit of the mapred API.
+     */
+    public static class CombineGridDatasetSplit extends InputSplit implements Writable {
+
+        private CombineGridDatasetInputSplit split;
+
+        public CombineGridDatasetSplit() {
+            this(new CombineGridDatasetInputSplit());
+        }
+
+        public CombineGridDatasetSplit(CombineGridDatasetInputSplit split) {
+            this.split = split;
+        }
+
+        public CombineGridDatasetInputSplit getSplit() {
+            return split;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return split.getLength();
+        }
+
+        @Override
+        public String[] getLocations() throws IOException {
+            return split.getLocations();
+        }
+
+        @Override
+        public void readFields(DataInput input) throws IOException {
+            split.readFields(input);
+        }
+
+        @Override
+        public void write(DataOutput output) throws IOException {
+            split.write(output);
+        }
+
+    }
+
+    /**
+     * Adapts the mapred record reader to the mapreduce API.
+     */
+    public static class CombineGridDatasetRecordReader extends RecordReader<NullWritable, TupleWrapper> {
+
+        private final netcdf.hadoop.CombineGridDatasetInputFormat format;
+        private org.apache.hadoop.mapred.RecordReader<NullWritable, TupleWrapper> reader;
+        private TupleWrapper value;
+
+        CombineGridDatasetRecordReader(netcdf.hadoop.CombineGridDatasetInputFormat format) {
+            this.format = format;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            JobConf job = new JobConf(context.getConfiguration());
+            CombineGridDatasetInputSplit combined = ((CombineGridDatasetSplit) split).getSplit();
+            reader = format.getRecordReader(combined, job, new ContextReporter(context, combined));
+            value = reader.createValue();
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            return reader.next(NullWritable.get(), value);
+        }
+
+        @Override
+        public NullWritable getCurrentKey() {
+            return NullWritable.get();
+        }
+
+        @Override
+        public TupleWrapper getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null)
+                reader.close();
+        }
+
+    }
+
+    /**
+     * A Reporter that increments the counters of a task attempt
+     * context, reporting the mapred split being read.
+     */
+    static class ContextReporter implements Reporter {
+
+        private final TaskAttemptContext context;
+        private final org.apache.hadoop.mapred.InputSplit split;
+
+        ContextReporter(TaskAttemptContext context, org.apache.hadoop.mapred.InputSplit split) {
+            this.context = context;
+            this.split = split;
+        }
+
+        @Override
+        public void progress() {
+            context.progress();
+        }
+
+        public float getProgress() {
+            return context.getProgress();
+        }
+
+        @Override
+        public void setStatus(String status) {
+            context.setStatus(status);
+        }
+
+        @Override
+        public Counters.Counter getCounter(Enum<?> name) {
+            return new ContextCounter(context.getCounter(name));
+        }
+
+        @Override
+        public Counters.Counter getCounter(String group, String name) {
+            return new ContextCounter(context.getCounter(group, name));
+        }
+
+        @Override
+        public void incrCounter(Enum<?> key, long amount) {
+            context.getCounter(key).increment(amount);
+        }
+
+        @Override
+        public void incrCounter(String group, String counter, long amount) {
+            context.getCounter(group, counter).increment(amount);
+        }
+
+        @Override
+        public org.apache.hadoop.mapred.InputSplit getInputSplit() {
+            return split;
+        }
+
+    }
+
+    /**
+     * A mapred counter that reads and updates a counter of a task
+     * attempt context.
+     */
+    static class ContextCounter extends Counters.Counter {
+
+        private final Counter counter;
+
+        ContextCounter(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public String getName() {
+            return counter.getName();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return counter.getDisplayName();
+        }
+
+        @Override
+        public void setDisplayName(String displayName) {
+            counter.setDisplayName(displayName);
+        }
+
+        @Override
+        public long getValue() {
+            return counter.getValue();
+        }
+
+        @Override
+        public void setValue(long value) {
+            counter.setValue(value);
+        }
+
+        @Override
+        public void increment(long amount) {
+            counter.increment(amount);
+        }
+
+        @Override
+        public long getCounter() {
+            return counter.getValue();
+        }
+
+        @Override
+        public Counter getUnderlyingCounter() {
+            return counter;
+        }
+
+    }
+
+    @Override
+    public RecordReader<NullWritable, TupleWrapper> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new CombineGridDatasetRecordReader(format);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context) throws IOException {
+        JobConf job = new JobConf(context.getConfiguration());
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (org.apache.hadoop.mapred.InputSplit split: format.getSplits(job, -1))
+            splits.add(new CombineGridDatasetSplit((CombineGridDatasetInputSplit) split));
+        return splits;
+    }
+
+}
@@ -1,7 +1,8 @@
 (ns netcdf.repository
   (:refer-clojure :exclude (replace))
   (:import java.io.File)
-  (:require [netcdf.dods :as dods]
+  (:require [clojure.java.io :as io]
+            [netcdf.dods :as dods]
             [netcdf.geo-grid :as grid])
   (:use [clojure.string :only (join replace)]
         [clj-time.core :only (year month day hour)]
@@ -35,21 +36,117 @@
   "Returns reference times of model in *repository*."
   [model] (-reference-times *repository* model))
 
+(defn latest-reference-time
+  "Returns the latest reference time of model in *repository*."
+  [model]
+  (let [times (reference-times model)]
+    (if (reversible? times)
+      (first (rseq times))
+      (last times))))
+
 (defmacro with-repository
   "Bind *repository* to directory and evaluate body."
   [directory & body]
   `(binding [*repository* ~directory]
      ~@body))
 
+;; REFERENCE TIME INDEX
+
+(def ^:dynamic *index-refresh-interval*
+  ;; Check the repository directories for changes at most once a minute.
+  (* 60 1000))
+
+(defonce ^:private indexes (atom {}))
+
+(defn- remove-directory [index path]
+  (reduce remove-directory
+          (-> index
+              (update :modified dissoc path)
+              (update :files dissoc path)
+              (update :children dissoc path))
+          (get-in index [:children path])))
+
+(defn- scan-directory
+  "Update index for the directory dir and its children. Only
+  directories whose modification time changed are listed again."
+  [index parse-path ^File dir]
+  (let [path (.getPath dir)
+        modified (.lastModified dir)]
+    (if (= modified (get-in index [:modified path]))
+      (reduce #(scan-directory %1 parse-path (File. ^String %2))
+              index (get-in index [:children path]))
+      (let [children (or (.listFiles dir) (make-array File 0))
+            directories (filter #(.isDirectory ^File %) children)
+            paths (set (map #(.getPath ^File %) directories))
+            index (reduce remove-directory index (remove paths (get-in index [:children path])))]
+        (reduce #(scan-directory %1 parse-path %2)
+                (-> index
+                    (assoc-in [:modified path] modified)
+                    (assoc-in [:children path] paths)
+                    (assoc-in [:files path] (set (keep parse-path (remove #(.isDirectory ^File %) children)))))
+                directories)))))
+
+(defn- index-times
+  "Returns a map from model name to a map from variable name to the
+  sorted reference times of the variable. The times of all variables
+  of a model are under the nil key."
+  [files]
+  (reduce (fn [times [model variable time]]
+            (-> times
+                (update-in [model nil] (fnil conj (sorted-set)) time)
+                (update-in [model variable] (fnil conj (sorted-set)) time)))
+          {} (apply concat (vals files))))
+
+(defn- refresh-index [index root parse-path]
+  (let [files (:files index)
+        index (scan-directory index parse-path (io/file root))]
+    (assoc (if (and (:times index) (= files (:files index)))
+             index
+             (assoc index :times (index-times (:files index))))
+      :checked (System/currentTimeMillis))))
+
+(defn indexed-reference-times
+  "Returns the sorted reference times of model, or of variable of
+  model, in the repository at root. parse-path returns the model name,
+  variable name and reference time of a dataset file or nil. The index
+  is updated incrementally, at most every *index-refresh-interval*
+  milliseconds."
+  [root parse-path model & [variable]]
+  (let [root (str root)
+        index (locking indexes
+                (let [index (get @indexes root)]
+                  (if (and index (< (- (System/currentTimeMillis) (:checked index)) *index-refresh-interval*))
+                    index
+                    (get (swap! indexes assoc root (refresh-index (or index {}) root parse-path)) root))))]
+    (get-in index [:times (:name model) (:name variable)] (sorted-set))))
+
+(defn index-reference-time!
+  "Add the reference time of a dataset of variable written to the
+  repository at root to the index of the repository."
+  [root model variable reference-time]
+  (let [add (fnil conj (sorted-set))]
+    (swap! indexes (fn [indexes]
+                     (if (get indexes (str root))
+                       (-> indexes
+                           (update-in [(str root) :times (:name model) nil] add reference-time)
+                           (update-in [(str root) :times (:name model) (:name variable)] add reference-time))
+                       indexes)))))
+
+(defn clear-reference-time-index!
+  "Drop the reference time index of all repositories."
+  [] (reset! indexes {}))
+
 ;; LOCAL REPOSITORY
 
+(defn- parse-local-path [^File file]
+  (if-let [time (parse-fragment file)]
+    (let [directory (.getParentFile file)]
+      [(.getName (.getParentFile directory)) (.getName directory) time])))
+
 (defn local-reference-times
-  "Returns the reference times in the local repository."
-  [repository model]
-  (->> (netcdf-file-seq (:url repository))
-       (map parse-fragment)
-       (remove nil?)
-       (apply sorted-set)))
+  "Returns the reference times of model in the local repository."
+  [repository model & [variable]]
+  (indexed-reference-times (:url repository) parse-local-path model variable))
 
 (defn local-dataset-url
   "Returns the variable url in the local repository."
@@ -124,14 +221,16 @@
        (join "$")
        (str (if root (str root File/separator)))))
 
+(defn- parse-dist-cache-file [file]
+  (if (netcdf-file? file)
+    (if-let [{:keys [model variable reference-time]}
+             (try (parse-dist-cache-path file) (catch Exception _ nil))]
+      [model variable reference-time])))
+
 (defn dist-cache-reference-times
-  "Returns the url of the dataset in the distributed cache."
-  [repository model]
-  (->> (netcdf-file-seq (:url repository))
-       (map parse-dist-cache-path)
-       (filter #(= (:name model) (:model %1)))
-       (map :reference-time)
-       (apply sorted-set)))
+  "Returns the reference times of model in the distributed cache."
+  [repository model & [variable]]
+  (indexed-reference-times (:url repository) parse-dist-cache-file model variable))
 
 (defrecord DistCacheRepository [url]
   IRepository
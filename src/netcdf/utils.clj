@@ -49,6 +49,9 @@
         (when-not junk-allowed
           (throw e))))))
 
+(defn- parse-long-or-nil [string]
+  (try (Long/parseLong string) (catch NumberFormatException _ nil)))
+
 (defmacro with-out-writer
   "Opens a writer on f, binds it to *out*, and evalutes body.
   Anything printed within body will be written to f."
@@ -61,21 +64,78 @@
   "Returns the MD5 checksum of filename."
   [filename] (digest "md5" (file filename)))
 
-(defn save-md5-checksum
-  "Save the MD5 checksum of filename."
+(defn rate-limited-md5-checksum
+  "Returns the MD5 checksum of filename, reading at most
+  bytes-per-second bytes per second."
+  [filename bytes-per-second]
+  (let [md (java.security.MessageDigest/getInstance "MD5")
+        buffer (byte-array 65536)
+        start (System/currentTimeMillis)]
+    (with-open [in (java.io.FileInputStream. (file filename))]
+      (loop [total 0]
+        (let [n (.read in buffer)]
+          (if (neg? n)
+            (format "%032x" (BigInteger. 1 (.digest md)))
+            (let [total (+ total n)
+                  wait (- (long (/ (* total 1000) bytes-per-second))
+                          (- (System/currentTimeMillis) start))]
+              (.update md buffer 0 n)
+              (when (pos? wait) (Thread/sleep wait))
+              (recur total))))))))
+
+(defn read-md5-checksum
+  "Returns the MD5 checksum saved for filename, with the size and
+  modification time filename had when it was saved, or nil."
   [filename]
-  (with-out-writer (str filename ".md5")
-    (println (md5-checksum filename))))
+  (let [md5-filename (str filename ".md5")]
+    (if (file-exists? md5-filename)
+      (with-open [in (reader md5-filename)]
+        (let [[md5 stat] (line-seq in)
+              [size modified] (if stat (map parse-long-or-nil (.split ^String stat " ")))]
+          {:md5 md5 :size size :modified modified})))))
+
+(defn save-md5-checksum
+  "Save the MD5 checksum of filename, together with its size and
+  modification time."
+  [filename & [checksum]]
+  (let [checksum (or checksum (md5-checksum filename))
+        f (file filename)]
+    (with-out-writer (str filename ".md5")
+      (println checksum)
+      (println (.length f) (.lastModified f)))))
 
 (defn valid-md5-checksum?
   "Returns true if the MD5 checksum of filename is valid, otherwise
-  false."
+  false. Files are only rehashed if their size or modification time
+  changed since the checksum was saved."
   [filename]
-  (let [md5-filename (str filename ".md5")]
-    (and (file-exists? filename)
-         (file-exists? md5-filename)
-         (= (md5-checksum filename)
-            (first (line-seq (reader md5-filename)))))))
+  (let [saved (read-md5-checksum filename)
+        f (file filename)]
+    (boolean
+     (and (file-exists? filename)
+          saved
+          (or (and (= (:size saved) (.length f))
+                   (= (:modified saved) (.lastModified f)))
+              (when (= (md5-checksum filename) (:md5 saved))
+                (save-md5-checksum filename (:md5 saved))
+                true))))))
+
+(defn verify-md5-checksums
+  "Rehash filenames in the background and return a future of the
+  filenames whose saved MD5 checksum is missing or doesn't match.
+  With bytes-per-second the files are read at most that fast."
+  [filenames & {:keys [bytes-per-second]}]
+  (future
+    (doall
+     (remove
+      (fn [filename]
+        (let [saved (read-md5-checksum filename)]
+          (and saved
+               (= (:md5 saved)
+                  (if bytes-per-second
+                    (rate-limited-md5-checksum filename bytes-per-second)
+                    (md5-checksum filename))))))
+      filenames))))
 
 (defn with-meta+
   "Returns an object of the same type and value as obj, with map m
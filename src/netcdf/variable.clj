@@ -1,11 +1,12 @@
 (ns netcdf.variable
   (:import java.io.File)
   (:require [netcdf.dods :as dods]
+            [netcdf.flat-grid :as flat]
             [netcdf.geo-grid :as grid])
   (:use [clj-time.coerce :only (to-date-time)]
         [clj-time.core :only (now interval)]
         [clojure.string :only (join)]
-        [netcdf.dataset :only (copy-dataset find-geo-grid open-grid-dataset)]
+        [netcdf.dataset :only (copy-complete? copy-dataset find-geo-grid open-grid-dataset with-cached-grid-dataset)]
         clj-time.format
         clojure.tools.logging
         netcdf.repository
@@ -41,7 +42,7 @@
           :unit ~unit#))
        (swap! *variables* assoc (keyword (:name ~name#)) ~name#))))
 
-(defn download-variable [model variable & {:keys [reference-time root-dir]}]
+(defn download-variable [model variable & {:keys [reference-time root-dir chunk-size flat-grid]}]
   (if-let [reference-time (to-date-time (or reference-time (last (dods/reference-times model))))]
     (let [start-time (now)
           source (dods-dataset-url model variable reference-time)
@@ -52,41 +53,58 @@
       (infof "  Reference Time.. %s" (unparse (formatters :rfc822) reference-time))
       (infof "  DODS Url........ %s" source)
       (infof "  File Name....... %s" target)
-      (if-not (> (file-size target) 0)
-        (let [_ (copy-dataset source target [(:name variable)])
+      (if (copy-complete? target)
+        (infof "  File Size....... %s" (human-file-size target))
+        (let [_ (copy-dataset source target [(:name variable)] :chunk-size chunk-size)
               interval (interval start-time (now))]
           (infof "  File Size....... %s" (human-file-size target))
           (infof "  Transfer Rate... %s" (human-transfer-rate (file-size target) interval))
-          (infof "  Duration........ %s" (human-duration interval)))
-        (infof "  File Size....... %s" (human-file-size target)))
+          (infof "  Duration........ %s" (human-duration interval))
+          (index-reference-time! (or root-dir *local-root*) model variable reference-time)))
+      (when (and flat-grid (not (flat/flat-grid-current? target)))
+        (flat/write-flat-grid target (:name variable)))
       (assoc variable
         :interval (interval start-time (now))
         :filename target
         :reference-time reference-time
         :size (file-size target)))))
 
-(defn read-variable [model variable pois & [reference-time]]
-  (if-let [reference-time (to-date-time (or reference-time (last (reference-times model))))]
-    (with-open [dataset (open-grid model variable reference-time)]
-      (let [grid (find-geo-grid dataset (:name variable))]
-        (doall
-         (for [valid-time (grid/valid-times grid)
-               poi (if (sequential? pois) pois [pois])
-               :let [value (grid/read-location grid (:location poi) :valid-time valid-time)]
-               :when (not (Double/isNaN value))]
-           {:location (:location poi)
-            :id (:id poi)
-            :reference-time reference-time
-            :valid-time valid-time
-            :value value
-            :variable variable}))))))
+(defn- series-records
+  "Returns the records of the time series of pois, skipping NaNs."
+  [variable reference-time pois valid-times series]
+  (doall
+   (for [[n valid-time] (map-indexed vector valid-times)
+         [poi ^doubles values] (map vector pois series)
+         :when values
+         :let [value (aget values n)]
+         :when (not (Double/isNaN value))]
+     {:location (:location poi)
+      :id (:id poi)
+      :reference-time reference-time
+      :valid-time valid-time
+      :value value
+      :variable variable})))
+
+(defn read-variable
+  "Read the variable at pois. The flat grid sidecar of the dataset is
+  used if there is one, otherwise the NetCDF dataset is read."
+  [model variable pois & [reference-time]]
+  (if-let [reference-time (to-date-time (or reference-time (latest-reference-time model)))]
+    (let [pois (if (sequential? pois) pois [pois])]
+      (if-let [{:keys [valid-times series]}
+               (flat/read-locations-series (dataset-url model variable reference-time) (map :location pois))]
+        (series-records variable reference-time pois valid-times series)
+        (with-open [dataset (open-grid model variable reference-time)]
+          (let [grid (find-geo-grid dataset (:name variable))]
+            (series-records variable reference-time pois (grid/valid-times grid)
+                            (grid/read-locations-series grid (map :location pois)))))))))
 
 (defn valid-times
   "Returns the valid times of the variable."
   [model variable & [reference-time]]
-  (let [reference-time (or reference-time (last (reference-times model)))]
-    (with-open [dataset (open-grid-dataset (dataset-url model variable reference-time))]
-      (grid/valid-times (find-geo-grid dataset (:name variable))))))
+  (let [reference-time (or reference-time (latest-reference-time model))]
+    (with-cached-grid-dataset [dataset (dataset-url model variable reference-time)]
+      (doall (grid/valid-times (find-geo-grid dataset (:name variable)))))))
 
 (defn variable-fragment
   "Returns the variable fragment."
@@ -1,8 +1,10 @@
 (ns netcdf.cascalog.dataset-test
   (:require [clj-time.coerce :refer [to-date-time]]
             [cascalog.api :refer :all]
+            [cascalog.logic.ops :as c]
             [clojure.test :refer :all]
-            [netcdf.cascalog.dataset :refer :all]))
+            [netcdf.cascalog.dataset :refer :all])
+  (:import [netcdf.hadoop GridCell GridDatasetConfiguration]))
 
 (def model "akw")
 
@@ -24,6 +26,42 @@
     (is (= ["model" "datatype" "timestamp" "latitude" "longitude" "value" "unit" "width" "height" "x" "y"]
            (seq (.getSourceFields dataset))))))
 
+(deftest test-dataset-with-pushdown
+  (let [dataset (dataset model url datatypes timestamps
+                         :bounding-box {:south-west {:latitude 50 :longitude 170}
+                                        :north-east {:latitude 60 :longitude -170}}
+                         :fields [:latitude :longitude :value]
+                         :z-coord 0)
+        scheme (.getScheme dataset)]
+    (is (= ["latitude" "longitude" "value"] (seq (.getSourceFields dataset))))
+    (is (= 50.0 (.getLatitude (.getLowerLeftPoint (.getBoundingBox scheme)))))
+    (is (= 0.0 (.getZCoord scheme)))))
+
+(deftest test-dataset-compact
+  (let [dataset (dataset model url datatypes timestamps :compact true)]
+    (is (.isCompact (.getScheme dataset)))
+    (is (= ["cell"] (seq (.getSourceFields dataset))))))
+
+(deftest test-compact-job-conf
+  (let [conf (compact-job-conf model :htsgwsfc "m")]
+    (is (= "akw,htsgwsfc,m" (get conf GridDatasetConfiguration/CELL_DICTIONARY)))
+    (is (.contains (get conf "io.serializations") "netcdf.hadoop.GridCellSerialization"))
+    (is (.contains (get conf "cascading.serialization.tokens") "150=netcdf.hadoop.GridCell"))))
+
+(deftest test-dataset-compact-group-by
+  (let [timestamps (take 1 (GridDatasetConfiguration/timestamps url))
+        expected (??<- [?x ?y ?value]
+                       ((dataset model url datatypes timestamps :fields [:x :y :value]) ?x ?y ?value))
+        cells (with-job-conf (compact-job-conf model "htsgwsfc" "m")
+                (??<- [?cell ?count]
+                      ((dataset model url datatypes timestamps :compact true) ?cell)
+                      (c/count ?count)))]
+    (is (= (* 155 123) (count cells)))
+    (is (every? (fn [[cell count]] (and (instance? GridCell cell) (= 1 count))) cells))
+    (is (every? #(= [model "htsgwsfc"] [(.getModel ^GridCell (first %)) (.getDatatype ^GridCell (first %))]) cells))
+    (is (= (set (for [[x y value] expected] [x y (str value)]))
+           (set (for [[^GridCell cell] cells] [(.getX cell) (.getY cell) (str (.getValue cell))]))))))
+
 (comment
   (deftest test-query-dataset
    (?- (hfs-textline "/tmp/test-query-dataset" :sinkmode :replace)
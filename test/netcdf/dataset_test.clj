@@ -1,6 +1,7 @@
 (ns netcdf.dataset-test
   (:import ucar.nc2.dt.grid.GeoGrid)
-  (:require [netcdf.dods :as dods]
+  (:require [clojure.java.io :as io]
+            [netcdf.dods :as dods]
             [netcdf.model :refer [nww3]]
             [clj-time.core :refer [date-time]])
   (:use clojure.test
@@ -40,6 +41,30 @@
     (copy-dataset example-path target ["htsgwsfc"])
     (is (= (.exists (java.io.File. target)) true))))
 
+(deftest test-copy-dataset-with-chunk-size
+  (let [target "/tmp/.copy-test-chunked.netcdf"]
+    (io/delete-file target true)
+    (io/delete-file (str target ".md5") true)
+    (copy-dataset example-path target ["htsgwsfc"] :chunk-size 10)
+    (is (.exists (io/file target)))
+    (is (not (.exists (io/file (str target ".progress")))))
+    (with-grid-dataset [dataset target]
+      (is (= 61 (count (valid-times dataset)))))
+    (with-dataset [dataset target]
+      (is (.isUnlimited (.findDimension dataset "time"))))))
+
+(deftest test-copy-dataset-resume
+  (let [target "/tmp/.copy-test-resume.netcdf"]
+    (io/delete-file target true)
+    (io/delete-file (str target ".md5") true)
+    (copy-dataset example-path target ["htsgwsfc"] :chunk-size 10)
+    (io/delete-file (str target ".md5"))
+    (spit (str target ".progress")
+          (apply str (for [start (range 0 50 10)] (str "htsgwsfc:" start "\n"))))
+    (copy-dataset example-path target ["htsgwsfc"] :chunk-size 10)
+    (is (not (.exists (io/file (str target ".progress")))))
+    (is (.exists (io/file (str target ".md5"))))))
+
 (deftest test-datatype-names
   (with-grid-dataset [dataset example-path]
     (is (= (datatype-names dataset) ["htsgwsfc"]))))
@@ -75,6 +100,12 @@
   (with-grid-dataset [dataset example-path]
     (is (instance? ucar.nc2.dt.grid.GridDataset dataset))))
 
+(deftest test-with-cached-grid-dataset
+  (with-cached-grid-dataset [dataset example-path]
+    (is (instance? ucar.nc2.dt.grid.GridDataset dataset))
+    (with-cached-grid-dataset [other example-path]
+      (is (identical? dataset other)))))
+
 (deftest test-write-dataset
   (with-grid-dataset [dataset example-path]
     (write-dataset dataset "/tmp/netcdf.csv")))
@@ -95,3 +126,12 @@
     (let [directory "/tmp/test-write-geotiffs"
           filenames (write-geotiffs dataset [example-variable] directory)]
       (is (= 61 (count filenames))))))
+
+(deftest test-write-geotiffs-with-workers
+  (with-grid-dataset [dataset example-path]
+    (let [directory "/tmp/test-write-geotiffs-parallel"
+          filenames (write-geotiffs dataset [example-variable] directory nil :workers 4 :read-ahead 2)]
+      (is (= 61 (count filenames)))
+      (is (= (map #(io/file directory (geotiff-filename example-variable %)) (valid-times dataset))
+             filenames))
+      (is (every? #(.exists (io/file (str % ".md5"))) filenames)))))
@@ -114,3 +114,48 @@
       (is (= time (date-time 2009 9 7 0 0 0))))
     (let [time (parse-reference-time (URI. url))]
       (is (= time (date-time 2009 9 7 0 0 0))))))
+
+(deftest test-parse-inventory-with-filter
+  (let [datasets (parse-inventory* "test-resources/dods/xml"
+                                   :prefix "https://nomads.ncep.noaa.gov/dods/wave/akw"
+                                   :pattern ".*_00z")]
+    (is (= 1 (count datasets)))
+    (is (= "/wave/akw/akw20101030/akw20101030_00z" (:name (first datasets))))))
+
+(defn- start-inventory-server
+  "Start a HTTP server serving the test inventory with an ETag, and
+  answering conditional requests with 304. Returns [server requests]."
+  []
+  (let [requests (atom [])
+        body (.getBytes (slurp "test-resources/dods/xml") "UTF-8")
+        server (com.sun.net.httpserver.HttpServer/create (java.net.InetSocketAddress. "localhost" 0) 0)]
+    (.createContext server "/dods/xml"
+                    (reify com.sun.net.httpserver.HttpHandler
+                      (handle [_ exchange]
+                        (let [etag (.getFirst (.getRequestHeaders exchange) "If-None-Match")]
+                          (swap! requests conj etag)
+                          (if (= etag "\"v1\"")
+                            (.sendResponseHeaders exchange 304 -1)
+                            (do (.add (.getResponseHeaders exchange) "ETag" "\"v1\"")
+                                (.sendResponseHeaders exchange 200 (alength body))
+                                (with-open [out (.getResponseBody exchange)]
+                                  (.write out body))))
+                          (.close exchange)))))
+    (.start server)
+    [server requests]))
+
+(deftest test-inventory-file
+  (is (= (File. "test-resources/dods/xml") (inventory-file "test-resources/dods/xml")))
+  (let [[server requests] (start-inventory-server)
+        url (str "http://localhost:" (.getPort (.getAddress server)) "/dods/xml")
+        cache (str (System/getProperty "java.io.tmpdir") "/netcdf-inventory-" (System/nanoTime))]
+    (try
+      (binding [*inventory-cache* cache]
+        (let [file (inventory-file url)]
+          (is (.exists file))
+          (is (= 11 (count (parse-inventory* url))))
+          (is (= [nil] @requests))
+          (refresh-inventory url)
+          (is (= [nil "\"v1\""] @requests))
+          (is (= 11 (count (parse-inventory* url))))))
+      (finally (.stop server 0)))))
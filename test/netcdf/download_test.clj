@@ -0,0 +1,66 @@
+(ns netcdf.download-test
+  (:require [clj-time.core :refer [now interval]]
+            [clojure.test :refer :all]
+            [netcdf.download :refer :all]
+            [netcdf.model :refer [akw nww3]]
+            [netcdf.variable :refer [htsgwsfc windsfc]]))
+
+(defn- stub-download [calls & {:keys [fail]}]
+  (fn [model variable & _]
+    (let [n (swap! calls inc)]
+      (when (and fail (fail model variable n))
+        (throw (java.io.IOException. "Stub failure")))
+      (assoc variable :interval (interval (now) (now)) :size 100))))
+
+(deftest test-model-host
+  (is (= "nomads.ncep.noaa.gov" (model-host akw)))
+  (is (= "localhost" (model-host {:dods "file:///tmp/dods"})))
+  (is (= "localhost" (model-host {}))))
+
+(deftest test-backoff-millis
+  (is (= 100 (backoff-millis 1 100 1000)))
+  (is (= 200 (backoff-millis 2 100 1000)))
+  (is (= 1000 (backoff-millis 5 100 1000))))
+
+(deftest test-download-variables
+  (let [calls (atom 0)]
+    (with-redefs [netcdf.variable/download-variable (stub-download calls)]
+      (let [report (download-variables [akw nww3] [htsgwsfc windsfc] :workers 3 :per-host 1)]
+        (is (= 4 @calls))
+        (is (= 4 (:succeeded report)))
+        (is (= 0 (:failed report)))
+        (is (= 400 (:size report)))
+        (is (= #{"akw" "nww3"} (set (map :model (:results report)))))))))
+
+(deftest test-download-variables-with-retries
+  (let [calls (atom 0)]
+    (with-redefs [netcdf.variable/download-variable
+                  (stub-download calls :fail (fn [model variable n] (= 1 n)))]
+      (let [report (download-variables [akw] [htsgwsfc] :workers 1 :backoff 1)]
+        (is (= 2 @calls))
+        (is (= 1 (:succeeded report)))
+        (is (= 2 (:attempts (first (:results report)))))))))
+
+(deftest test-download-variables-with-failure
+  (let [calls (atom 0)]
+    (with-redefs [netcdf.variable/download-variable
+                  (stub-download calls :fail (constantly true))]
+      (let [report (download-variables [akw] [htsgwsfc] :retries 2 :backoff 1)]
+        (is (= 3 @calls))
+        (is (= 0 (:succeeded report)))
+        (is (= 1 (:failed report)))
+        (is (instance? java.io.IOException (:error (first (:results report)))))))))
+
+(deftest test-download-variables-releases-host-during-backoff
+  (let [calls (atom [])]
+    (with-redefs [netcdf.variable/download-variable
+                  (fn [model variable & _]
+                    (let [calls (swap! calls conj (:name variable))]
+                      (when (= 1 (count (filter #{(:name htsgwsfc)} calls)))
+                        (when (= (:name htsgwsfc) (:name variable))
+                          (throw (java.io.IOException. "Stub failure")))))
+                    (assoc variable :interval (interval (now) (now)) :size 100))]
+      (let [report (download-variables [akw] [htsgwsfc windsfc] :workers 2 :per-host 1 :backoff 500)]
+        (is (= 2 (:succeeded report)))
+        ;; windsfc isn't kept waiting while htsgwsfc backs off
+        (is (= (:name htsgwsfc) (last @calls)))))))
@@ -0,0 +1,55 @@
+(ns netcdf.flat-grid-test
+  (:require [clojure.java.io :as io]
+            [clojure.test :refer :all]
+            [netcdf.flat-grid :refer :all]
+            [netcdf.geo-grid :as grid]
+            [netcdf.location :refer [make-location]]
+            [netcdf.test :refer [example-path example-variable]]))
+
+(def example-target "/tmp/netcdf-flat-grid-test.nc")
+
+(defn- with-example-copy [f]
+  (io/copy (io/file example-path) (io/file example-target))
+  (io/delete-file (flat-grid-filename example-target) true)
+  (f))
+
+(use-fixtures :each with-example-copy)
+
+(deftest test-write-flat-grid
+  (is (= (flat-grid-filename example-target) (write-flat-grid example-target example-variable)))
+  (let [flat (open-flat-grid example-target)]
+    (is (= example-variable (.getName flat)))
+    (is (identical? flat (open-flat-grid example-target)))))
+
+(deftest test-read-location
+  (let [locations [(make-location 50 200) (make-location 60 -150) (make-location 70 180)]
+        expected (grid/with-open-geo-grid [grid example-target example-variable]
+                   (let [time (last (grid/valid-times grid))]
+                     [time (mapv #(grid/read-location grid % :valid-time time) locations)]))]
+    (is (= (map str (second expected))
+           (map #(str (read-location example-target example-variable % :valid-time (first expected))) locations)))
+    (write-flat-grid example-target example-variable)
+    (doseq [[location value] (map vector locations (second expected))]
+      (let [flat-value (read-location example-target example-variable location :valid-time (first expected))]
+        (if (Double/isNaN value)
+          (is (Double/isNaN flat-value))
+          (is (< (Math/abs (- value flat-value)) 1e-5)))))))
+
+(deftest test-read-locations-series
+  (is (nil? (read-locations-series example-target [(make-location 60 -150)])))
+  (write-flat-grid example-target example-variable)
+  (let [{:keys [valid-times series]} (read-locations-series example-target [(make-location 60 -150) nil])
+        expected (grid/with-open-geo-grid [grid example-target example-variable]
+                   (grid/read-location-series grid (make-location 60 -150)))]
+    (is (= 61 (count valid-times)))
+    (is (nil? (second series)))
+    (is (= (map float expected) (map float (first series))))))
+
+(deftest test-stale-flat-grid
+  (write-flat-grid example-target example-variable)
+  (is (flat-grid-current? example-target))
+  (let [sidecar (io/file (flat-grid-filename example-target))]
+    (.setLastModified sidecar (- (.lastModified (io/file example-target)) 60000))
+    (is (not (flat-grid-current? example-target)))
+    (is (nil? (open-flat-grid example-target)))
+    (is (nil? (read-locations-series example-target [(make-location 60 -150)])))))
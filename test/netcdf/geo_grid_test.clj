@@ -1,5 +1,7 @@
 (ns netcdf.geo-grid-test
-  (:import ucar.unidata.geoloc.Projection)
+  (:import [ucar.ma2 Array DataType]
+           [ucar.nc2 Attribute NetcdfFileWriter NetcdfFileWriter$Version]
+           ucar.unidata.geoloc.Projection)
   (:use [clj-time.core :only (date-time)]
         [clojure.java.io :only (reader)]
         [clojure.string :only (split)]
@@ -16,9 +18,42 @@
 (defn open-example-geo-grid []
   (open-geo-grid example-path example-variable))
 
+(defn- write-grids
+  "Write a small NetCDF dataset with a grid for each of names, all on
+  the same coordinate system."
+  [filename names]
+  (let [writer (NetcdfFileWriter/createNew NetcdfFileWriter$Version/netcdf3 filename)
+        axes {"time" [(double-array [0 1]) "hours since 2014-01-01 00:00:00"]
+              "lat" [(double-array [0 1 2]) "degrees_north"]
+              "lon" [(double-array [0 1 2 3]) "degrees_east"]}]
+    (doseq [[name [values units]] axes]
+      (.addDimension writer nil name (alength ^doubles values))
+      (.addVariableAttribute writer (.addVariable writer nil name DataType/DOUBLE name) (Attribute. "units" units)))
+    (doseq [name names]
+      (.addVariable writer nil name DataType/DOUBLE "time lat lon"))
+    (.create writer)
+    (doseq [[name [values]] axes]
+      (.write writer (.findVariable writer name) (Array/factory ^doubles values)))
+    (.close writer)
+    filename))
+
 (deftest test-open-geo-grid
-  (let [geo-grid (open-example-geo-grid)]
-    (is (= (class geo-grid) ucar.nc2.dt.grid.GeoGrid))))
+  (let [cache (netcdf.grid.GridDatasetCache/getInstance)
+        size (.size cache)
+        geo-grid (open-example-geo-grid)]
+    (is (= (class geo-grid) ucar.nc2.dt.grid.GeoGrid))
+    (is (= size (.size cache)))))
+
+(deftest test-read-location-concurrently
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [locations (for [latitude (range 50 70 2) longitude (range -170 -140 3)]
+                      (make-location latitude longitude))
+          expected (doall (map #(read-location grid % :valid-time (last (valid-times grid))) locations))]
+      (dotimes [_ 4]
+        (let [futures (doall (for [_ (range 8)]
+                               (future (doall (map #(read-location grid % :valid-time (last (valid-times grid))) locations)))))]
+          (doseq [f futures]
+            (is (= (map str expected) (map str @f)))))))))
 
 (deftest test-bounding-box
   (with-open-geo-grid [grid example-path example-variable]
@@ -108,6 +143,27 @@
     (= [(read-location grid (make-location 77 0))]
        (read-locations grid [(make-location 77 0)]))))
 
+(deftest test-read-locations-batch
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [locations [(make-location 77 0) (make-location 10 20) nil (make-location -60 -100.5)]
+          values (read-locations grid locations)]
+      (is (= 4 (count values)))
+      (is (nil? (nth values 2)))
+      (doseq [[location value] (map vector locations values) :when location]
+        (is (= (str (read-location grid location)) (str value)))))))
+
+(deftest test-location-indexes
+  (with-open-geo-grid [grid example-path example-variable]
+    (is (= [[0 78] nil nil]
+           (location-indexes grid [(make-location 0 0) nil (make-location 900 900)])))))
+
+(deftest test-read-indexes
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [values (read-indexes grid [[0 0] nil [10 20]])]
+      (is (= (str (read-index grid 0 0)) (str (first values))))
+      (is (Double/isNaN (second values)))
+      (is (= (str (read-index grid 10 20)) (str (nth values 2)))))))
+
 (deftest test-read-index
   (with-open-geo-grid [grid example-path example-variable]
     (is (instance? Double (read-index grid 0 0)))))
@@ -138,6 +194,22 @@
       (is (instance? java.lang.Double (:value record))))
     (is (= (count sequence) 45216))))
 
+(deftest test-read-seq-with-band-rows
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [records (read-seq grid)
+          banded (read-seq grid :band-rows 10)]
+      (is (= (count records) (count banded)))
+      (is (= (map :location records) (map :location banded)))
+      (is (= (map (comp str :value) records)
+             (map (comp str :value) banded))))))
+
+(deftest test-read-seq-matches-read-index
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [width (.getLength (.getXDimension grid))]
+      (doseq [[n record] (take 5 (drop 20000 (map-indexed vector (read-seq grid))))]
+        (is (= (str (read-index grid (rem n width) (quot n width)))
+               (str (:value record))))))))
+
 (deftest test-to-csv
   (is (= "htsgwsfc\t1292630400000\t75.0\t-124.5\t0.5399999618530273"
          (to-csv
@@ -165,3 +237,56 @@
     (let [filename "/tmp/netcdf.csv"]
       (write-grid grid filename)
       (is (< 0 (count (line-seq (reader filename))))))))
+
+(deftest test-read-index-series
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [series (read-index-series grid 10 20)
+          times (valid-times grid)]
+      (is (= 61 (alength series)))
+      (is (= (str (read-index grid 10 20 :valid-time (first times))) (str (aget series 0))))
+      (is (= (str (read-index grid 10 20 :valid-time (last times))) (str (aget series 60)))))
+    (is (nil? (read-index-series grid nil nil)))))
+
+(deftest test-read-indexes-series
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [indexes [[0 0] nil [10 20] [100 100]]
+          series (read-indexes-series grid indexes)]
+      (is (= 4 (count series)))
+      (is (nil? (second series)))
+      (doseq [[[x y] values] (map vector indexes series) :when x]
+        (is (= (seq (read-index-series grid x y)) (seq values)))))
+    (let [series (read-indexes-series grid [[10 20] [11 21]])]
+      (is (= (seq (read-index-series grid 11 21)) (seq (second series)))))))
+
+(deftest test-read-grids-series
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [location (make-location 0 0)
+          series (read-grids-series [grid] [location nil])]
+      (is (= #{example-variable} (set (keys series))))
+      (is (= (seq (read-location-series grid location)) (seq (first (series example-variable)))))
+      (is (nil? (second (series example-variable)))))))
+
+(deftest test-read-grids-series-resolves-once-per-coord-system
+  (with-open [dataset (dataset/open-grid-dataset (write-grids "/tmp/.read-grids-series.nc" ["a" "b"]))]
+    (let [grids (dataset/geo-grids dataset)
+          resolve-indexes location-indexes
+          resolved (atom 0)]
+      (is (= 2 (count grids)))
+      (is (= 1 (count (distinct (map coord-system grids)))))
+      (with-redefs [location-indexes (fn [grid locations]
+                                       (swap! resolved inc)
+                                       (resolve-indexes grid locations))]
+        (is (= #{"a" "b"} (set (keys (read-grids-series grids [(make-location 1 1)]))))))
+      (is (= 1 @resolved)))))
+
+(deftest test-read-location-with-slice-cache
+  (with-open-geo-grid [grid example-path example-variable]
+    (let [cache (netcdf.grid.SliceCache. (* 1024 1024) false)
+          location (make-location 60 -150)
+          expected (read-location grid location)]
+      (binding [*slice-cache* cache]
+        (is (= expected (read-location grid location)))
+        (is (= expected (read-location grid location)))
+        (is (= (read-index grid 10 20) (read-index grid 10 20))))
+      (is (= 2 (.getMisses cache)))
+      (is (= 2 (.getHits cache))))))
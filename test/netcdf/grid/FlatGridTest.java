@@ -0,0 +1,55 @@
+package netcdf.grid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+
+public class FlatGridTest {
+
+    private GridDataset dataset;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        dataset = GridDataset.open(LatLonTableTest.URL);
+        target = new File("/tmp/.flat-grid-test.flat");
+        FlatGrid.write(dataset.findGridDatatype("htsgwsfc"), 0, target);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataset.close();
+        target.delete();
+    }
+
+    @Test
+    public void testOpenInSegments() throws Exception {
+        GridDatatype grid = dataset.findGridDatatype("htsgwsfc");
+        FlatGrid whole = FlatGrid.open(target);
+        // three planes of 155 x 123 floats per segment
+        FlatGrid segmented = FlatGrid.open(target, 3 * 4 * 155 * 123 + 1);
+        try {
+            assertEquals(61, segmented.getTimes().length);
+            assertArrayEquals(whole.getTimes(), segmented.getTimes());
+            for (int t = 0; t < 61; t += 5)
+                assertEquals(whole.get(t, 80, 60), segmented.get(t, 80, 60), 0);
+            assertEquals(whole.get(60, 154, 122), segmented.get(60, 154, 122), 0);
+            assertArrayEquals(whole.getSeries(80, 60), segmented.getSeries(80, 60), 0);
+            double value = grid.readYXData(60, 0).getDouble(122 * 155 + 154);
+            if (!grid.isMissingData(value))
+                assertEquals(value, segmented.get(60, 154, 122), 1e-5);
+        } finally {
+            whole.close();
+            segmented.close();
+        }
+    }
+
+}
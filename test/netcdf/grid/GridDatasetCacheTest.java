@@ -0,0 +1,71 @@
+package netcdf.grid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dt.grid.GridDataset;
+
+public class GridDatasetCacheTest {
+
+    static String URL = LatLonTableTest.URL;
+
+    private GridDatasetCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new GridDatasetCache(1, 60 * 1000);
+    }
+
+    @Test
+    public void testAcquire() throws Exception {
+        GridDataset dataset = cache.acquire(URL);
+        assertSame(dataset, cache.acquire(URL));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        cache.release(dataset);
+        cache.release(dataset);
+        assertEquals(1, cache.size());
+        assertSame(dataset, cache.acquire(URL));
+        assertEquals(2, cache.getHits());
+        cache.release(dataset);
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        GridDataset dataset = cache.acquire(URL);
+        cache.setMaxIdle(0);
+        assertEquals(1, cache.size());
+        cache.release(dataset);
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotSame(dataset, cache.acquire(URL));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        GridDatasetCache cache = new GridDatasetCache(1, 100, 50);
+        cache.release(cache.acquire(URL));
+        assertEquals(1, cache.size());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.size() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        GridDataset dataset = cache.acquire(URL);
+        cache.clear();
+        assertEquals(0, cache.size());
+        // still usable until released
+        assertEquals("htsgwsfc", dataset.findGridDatatype("htsgwsfc").getName());
+        cache.release(dataset);
+    }
+
+}
@@ -0,0 +1,228 @@
+package netcdf.grid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.grid.GridDataset;
+
+public class LatLonIndexTest {
+
+    static final String CURVILINEAR = "/tmp/.curvilinear.nc";
+
+    private GridDataset dataset;
+    private GridCoordSystem coords;
+    private LatLonTable table;
+    private LatLonIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dataset = GridDataset.open(LatLonTableTest.URL);
+        coords = dataset.findGridDatatype("htsgwsfc").getCoordinateSystem();
+        table = LatLonTable.of(coords);
+        index = LatLonIndex.of(coords);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataset.close();
+    }
+
+    @Test
+    public void testOf() {
+        assertSame(index, LatLonIndex.of(coords));
+        assertFalse(LatLonIndex.isCurvilinear(coords));
+        assertEquals(155, index.getWidth());
+        assertEquals(123, index.getHeight());
+    }
+
+    @Test
+    public void testFindXYAtCellCentres() {
+        for (int y = 0; y < table.getHeight(); y += 7) {
+            for (int x = 0; x < table.getWidth(); x += 5) {
+                int[] expected = coords.findXYindexFromLatLon(table.getLatitude(x, y), table.getLongitude(x, y), null);
+                assertArrayEquals(expected, index.findXY(table.getLatitude(x, y), table.getLongitude(x, y)));
+            }
+        }
+    }
+
+    @Test
+    public void testFindCellAgainstBruteForce() {
+        Random random = new Random(42);
+        for (int n = 0; n < 500; ++n) {
+            int x = random.nextInt(table.getWidth() - 1);
+            int y = random.nextInt(table.getHeight() - 1);
+            double latitude = table.getLatitude(x, y) + random.nextDouble() * (table.getLatitude(x, y + 1) - table.getLatitude(x, y));
+            double longitude = table.getLongitude(x, y) + random.nextDouble() * (table.getLongitude(x + 1, y) - table.getLongitude(x, y));
+            int cell = index.findNearestCells(latitude, longitude, 1)[0];
+            assertEquals(distance(bruteForce(latitude, longitude), latitude, longitude), distance(cell, latitude, longitude), 1e-12);
+        }
+    }
+
+    @Test
+    public void testFindCellOutsideGrid() {
+        assertEquals(-1, index.findCell(-60, 0));
+        assertArrayEquals(new int[]{-1, -1}, index.findXY(-60, 0));
+    }
+
+    @Test
+    public void testFindNearestCells() {
+        double latitude = table.getLatitude(10, 20);
+        double longitude = table.getLongitude(10, 20);
+        int[] cells = index.findNearestCells(latitude, longitude, 5);
+        assertEquals(5, cells.length);
+        assertEquals(20 * table.getWidth() + 10, cells[0]);
+        for (int n = 1; n < cells.length; ++n)
+            assertFalse(distance(cells[n], latitude, longitude) < distance(cells[n - 1], latitude, longitude));
+    }
+
+    @Test
+    public void testFindCells() {
+        double[] latitudes = {table.getLatitude(0, 0), table.getLatitude(10, 20), -60};
+        double[] longitudes = {table.getLongitude(0, 0), table.getLongitude(10, 20), 0};
+        assertArrayEquals(new int[]{0, 20 * table.getWidth() + 10, -1}, index.findCells(latitudes, longitudes));
+    }
+
+    @Test
+    public void testFindXYOnCurvilinearGrid() throws Exception {
+        writeCurvilinear(CURVILINEAR, 10, 12);
+        GridDataset curvilinear = GridDataset.open(CURVILINEAR);
+        try {
+            GridCoordSystem coords = curvilinear.findGridDatatype("temp").getCoordinateSystem();
+            LatLonTable table = LatLonTable.of(coords);
+            LatLonIndex index = LatLonIndex.of(coords);
+            assertTrue(LatLonIndex.isCurvilinear(coords));
+            int width = table.getWidth();
+            int height = table.getHeight();
+            // cell centres
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x)
+                    assertFindXY(coords, index, table.getLatitude(x, y), table.getLongitude(x, y));
+            }
+            // just inside and just outside the outer cells
+            for (double factor: new double[]{0.25, 0.75}) {
+                for (int y = 0; y < height; ++y) {
+                    assertFindXY(coords, index, outside(table, 0, y, 1, 0, factor, true), outside(table, 0, y, 1, 0, factor, false));
+                    assertFindXY(coords, index, outside(table, width - 1, y, -1, 0, factor, true), outside(table, width - 1, y, -1, 0, factor, false));
+                }
+                for (int x = 0; x < width; ++x) {
+                    assertFindXY(coords, index, outside(table, x, 0, 0, 1, factor, true), outside(table, x, 0, 0, 1, factor, false));
+                    assertFindXY(coords, index, outside(table, x, height - 1, 0, -1, factor, true), outside(table, x, height - 1, 0, -1, factor, false));
+                }
+            }
+            // on and around the grid
+            Random random = new Random(42);
+            for (int n = 0; n < 1000; ++n)
+                assertFindXY(coords, index, 48 + random.nextDouble() * 11, -13 + random.nextDouble() * 9);
+            // far away
+            assertFindXY(coords, index, -60, 100);
+            assertArrayEquals(new int[]{-1, -1}, index.findXY(-60, 100));
+        } finally {
+            curvilinear.close();
+        }
+    }
+
+    @Test
+    public void testFindCellOnNarrowGrids() {
+        double[] latitudes = {50, 50.5, 51, 51.5, 52};
+        double[] longitudes = {-10, -9.5, -9, -8.5, -8};
+        LatLonIndex row = new LatLonIndex(new LatLonTable(5, 1, false, latitudes, longitudes));
+        assertEquals(2, row.findCell(51, -9));
+        assertEquals(-1, row.findCell(-60, 100));
+        LatLonIndex column = new LatLonIndex(new LatLonTable(1, 5, false, latitudes, longitudes));
+        assertEquals(3, column.findCell(51.5, -8.5));
+        assertEquals(-1, column.findCell(-60, 100));
+        LatLonIndex cell = new LatLonIndex(new LatLonTable(1, 1, false, new double[]{50}, new double[]{-10}));
+        assertEquals(0, cell.findCell(50, -10));
+    }
+
+    @Test
+    public void testFindCellAcrossDateLine() {
+        int width = 4;
+        int height = 4;
+        double[] latitudes = new double[width * height];
+        double[] longitudes = new double[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                latitudes[y * width + x] = 10 + y;
+                longitudes[y * width + x] = LatLonIndex.unwrap(178.5 + x, 0);
+            }
+        }
+        LatLonIndex index = new LatLonIndex(new LatLonTable(width, height, false, latitudes, longitudes));
+        assertArrayEquals(new int[]{1, 1}, index.findXY(11.2, 179.9));
+        assertArrayEquals(new int[]{2, 1}, index.findXY(11.2, -179.8));
+        assertArrayEquals(new int[]{2, 2}, index.findXY(12, 180.5));
+        assertArrayEquals(new int[]{-1, -1}, index.findXY(11, 175));
+    }
+
+    /**
+     * Writes a curvilinear grid with 2D latitudes and longitudes, a
+     * regular grid rotated and sheared a little.
+     */
+    static void writeCurvilinear(String location, int width, int height) throws Exception {
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, location);
+        writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.0"));
+        writer.addDimension(null, "y", height);
+        writer.addDimension(null, "x", width);
+        Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "y x");
+        writer.addVariableAttribute(lat, new Attribute("units", "degrees_north"));
+        Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "y x");
+        writer.addVariableAttribute(lon, new Attribute("units", "degrees_east"));
+        Variable temp = writer.addVariable(null, "temp", DataType.DOUBLE, "y x");
+        writer.addVariableAttribute(temp, new Attribute("coordinates", "lat lon"));
+        writer.create();
+        ArrayDouble.D2 latitudes = new ArrayDouble.D2(height, width);
+        ArrayDouble.D2 longitudes = new ArrayDouble.D2(height, width);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                latitudes.set(y, x, 50 + 0.5 * y + 0.1 * x + 0.01 * x * y);
+                longitudes.set(y, x, -10 + 0.5 * x - 0.1 * y);
+            }
+        }
+        writer.write(lat, latitudes);
+        writer.write(lon, longitudes);
+        writer.close();
+    }
+
+    private static double outside(LatLonTable table, int x, int y, int dx, int dy, double factor, boolean latitude) {
+        if (latitude)
+            return table.getLatitude(x, y) - factor * (table.getLatitude(x + dx, y + dy) - table.getLatitude(x, y));
+        return table.getLongitude(x, y) - factor * (table.getLongitude(x + dx, y + dy) - table.getLongitude(x, y));
+    }
+
+    private static void assertFindXY(GridCoordSystem coords, LatLonIndex index, double latitude, double longitude) {
+        int[] expected = coords.findXYindexFromLatLon(latitude, longitude, null);
+        assertArrayEquals(latitude + "," + longitude, expected, index.findXY(latitude, longitude));
+    }
+
+    private int bruteForce(double latitude, double longitude) {
+        int best = -1;
+        for (int cell = 0; cell < table.getWidth() * table.getHeight(); ++cell) {
+            if (best < 0 || distance(cell, latitude, longitude) < distance(best, latitude, longitude))
+                best = cell;
+        }
+        return best;
+    }
+
+    private double distance(int cell, double latitude, double longitude) {
+        double[] a = LatLonIndex.toPoint(latitude, longitude, new double[3], 0);
+        double[] b = LatLonIndex.toPoint(table.getLatitude(cell % table.getWidth(), cell / table.getWidth()),
+                                         table.getLongitude(cell % table.getWidth(), cell / table.getWidth()), new double[3], 0);
+        return (a[0] - b[0]) * (a[0] - b[0]) + (a[1] - b[1]) * (a[1] - b[1]) + (a[2] - b[2]) * (a[2] - b[2]);
+    }
+
+}
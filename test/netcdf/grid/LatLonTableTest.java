@@ -0,0 +1,73 @@
+package netcdf.grid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.unidata.geoloc.LatLonPoint;
+
+public class LatLonTableTest {
+
+    static String URL = new File("test-resources/akw-htsgwsfc-2014-01-14T00.nc").getAbsolutePath();
+
+    private GridDataset dataset;
+    private GridCoordSystem coords;
+
+    @Before
+    public void setUp() throws Exception {
+        dataset = GridDataset.open(URL);
+        coords = dataset.findGridDatatype("htsgwsfc").getCoordinateSystem();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataset.close();
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        LatLonTable table = LatLonTable.of(coords);
+        assertEquals(155, table.getWidth());
+        assertEquals(123, table.getHeight());
+        assertTrue(table.isSeparable());
+        GridDataset other = GridDataset.open(URL);
+        try {
+            assertSame(table, LatLonTable.of(other.findGridDatatype("htsgwsfc").getCoordinateSystem()));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testGetLatLon() {
+        LatLonTable table = LatLonTable.of(coords);
+        assertEquals(44.75, table.getLatitude(0, 0), 0);
+        assertEquals(159.5, table.getLongitude(0, 0), 0);
+        assertEquals(160, table.getLongitude(1, 0), 0);
+        for (int y = 0; y < table.getHeight(); ++y) {
+            for (int x = 0; x < table.getWidth(); ++x) {
+                LatLonPoint expected = coords.getLatLon(x, y);
+                assertEquals(expected.getLatitude(), table.getLatitude(x, y), 0);
+                assertEquals(expected.getLongitude(), table.getLongitude(x, y), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testBuildTable() {
+        LatLonTable separable = LatLonTable.of(coords);
+        LatLonTable table = new LatLonTable(2, 2, false, new double[]{1, 2, 3, 4}, new double[]{5, 6, 7, 8});
+        assertEquals(3, table.getLatitude(0, 1), 0);
+        assertEquals(6, table.getLongitude(1, 0), 0);
+        assertEquals(separable.getLatitude(3, 2), separable.getLatLon(3, 2).getLatitude(), 0);
+    }
+
+}
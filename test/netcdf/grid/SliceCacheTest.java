@@ -0,0 +1,101 @@
+package netcdf.grid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.Range;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+
+public class SliceCacheTest {
+
+    private GridDataset dataset;
+    private GridDatatype grid;
+    private long sliceBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        dataset = GridDataset.open(LatLonTableTest.URL);
+        grid = dataset.findGridDatatype("htsgwsfc");
+        sliceBytes = (grid.readYXData(0, 0).getElementType() == float.class ? 4L : 8L) * 155 * 123;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataset.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        SliceCache cache = new SliceCache(10 * sliceBytes, false);
+        SliceCache.Slice slice = cache.get(grid, 3, 0);
+        assertSame(slice, cache.get(grid, 3, 0));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0);
+        assertEquals(sliceBytes, cache.getBytes());
+        Array data = grid.readDataSlice(3, 0, 20, 10);
+        assertEquals(data.getDouble(0), slice.get(10, 20), 0);
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        SliceCache cache = new SliceCache(10 * sliceBytes, true);
+        SliceCache.Slice slice = cache.get(grid, 3, 0);
+        assertTrue(slice.isOffHeap());
+        Array data = grid.readDataSlice(3, 0, 20, 10);
+        assertEquals(data.getDouble(0), slice.get(10, 20), 0);
+    }
+
+    @Test
+    public void testFloatSlices() throws Exception {
+        SliceCache cache = new SliceCache(10 * sliceBytes, false);
+        SliceCache.Slice slice = cache.get(grid, 0, 0);
+        if (grid.readYXData(0, 0).getElementType() == float.class)
+            assertEquals(4L * 155 * 123, slice.getSizeBytes());
+        assertEquals(slice.getSizeBytes(), cache.getBytes());
+        assertEquals(grid.readDataSlice(0, 0, 20, 10).getFloat(0), (float) new SliceCache(10 * sliceBytes, true).get(grid, 0, 0).get(10, 20), 0);
+    }
+
+    @Test
+    public void testSubset() throws Exception {
+        SliceCache cache = new SliceCache(10 * sliceBytes, false);
+        GridDatatype subset = grid.makeSubset(null, null, new Range(15, 122), new Range(20, 154));
+        SliceCache.Slice full = cache.get(grid, 3, 0);
+        SliceCache.Slice part = cache.get(subset, 3, 0);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertEquals(subset.getXDimension().getLength(), part.getWidth());
+        assertEquals(full.get(40, 30), part.get(20, 15), 0);
+        assertSame(part, cache.get(subset, 3, 0));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        SliceCache cache = new SliceCache(2 * sliceBytes, false);
+        SliceCache.Slice first = cache.get(grid, 0, 0);
+        cache.get(grid, 1, 0);
+        cache.get(grid, 0, 0);
+        cache.get(grid, 2, 0);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(first, cache.get(grid, 0, 0));
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        SliceCache cache = new SliceCache(10 * sliceBytes, false);
+        cache.get(grid, 0, 0);
+        cache.invalidate(grid.getCoordinateSystem().getXHorizAxis().getDatasetLocation());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+}
@@ -0,0 +1,111 @@
+package netcdf.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import netcdf.cascading.TupleWrapper;
+import netcdf.hadoop.CombineGridDatasetInputFormat.CombineGridDatasetInputSplit;
+
+public class CombineGridDatasetInputFormatTest {
+
+    static String URL = GridDatasetConfigurationTest.URL;
+
+    private File directory;
+    private JobConf job;
+    private GridDatasetConfiguration configuration;
+    private CombineGridDatasetInputFormat inputFormat;
+    private long unitBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
+        job = new JobConf();
+        configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
+        String[] datatypes = {"htsgwsfc"};
+        DateTime[] timestamps = Arrays.copyOf(GridDatasetConfiguration.timestamps(URL), 3);
+        configuration.configure("a", URL, datatypes, timestamps);
+        configuration.configure("b", URL, datatypes, timestamps);
+        configuration.setSplitTimestamps(1);
+        unitBytes = new GridDatasetInputFormat().getSplits(job, -1)[0].getLength();
+        configuration.setCombineMaxBytes(4 * unitBytes);
+        inputFormat = new CombineGridDatasetInputFormat();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.fullyDelete(directory);
+    }
+
+    @Test
+    public void testGetSplits() throws IOException {
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        assertEquals(2, splits.length);
+        assertEquals(4, ((CombineGridDatasetInputSplit) splits[0]).getSplits().length);
+        assertEquals(2, ((CombineGridDatasetInputSplit) splits[1]).getSplits().length);
+        assertEquals(4 * unitBytes, splits[0].getLength());
+        assertEquals(2 * unitBytes, splits[1].getLength());
+    }
+
+    @Test
+    public void testGetSplitsWithLargeUnits() throws IOException {
+        configuration.setCombineMaxBytes(1);
+        assertEquals(6, inputFormat.getSplits(job, -1).length);
+    }
+
+    @Test
+    public void testWriteAndReadFields() throws IOException {
+        CombineGridDatasetInputSplit split = (CombineGridDatasetInputSplit) inputFormat.getSplits(job, -1)[0];
+        DataOutputBuffer output = new DataOutputBuffer();
+        split.write(output);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        CombineGridDatasetInputSplit read = new CombineGridDatasetInputSplit();
+        read.readFields(input);
+        assertEquals(split.getLength(), read.getLength());
+        assertEquals(split.getSplits().length, read.getSplits().length);
+        GridDatasetInputFormat.GridDatasetInputSplit first = (GridDatasetInputFormat.GridDatasetInputSplit) read.getSplits()[0];
+        assertEquals("a", first.getModel());
+        assertEquals(URL, first.getUrl());
+    }
+
+    @Test
+    public void testNext() throws IOException {
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        long records = 0;
+        for (InputSplit split: splits) {
+            RecordReader<NullWritable, TupleWrapper> reader = inputFormat.getRecordReader(split, job, null);
+            try {
+                NullWritable key = reader.createKey();
+                TupleWrapper value = reader.createValue();
+                assertEquals(0, reader.getProgress(), 0);
+                while (reader.next(key, value))
+                    records++;
+                assertFalse(reader.next(key, value));
+                assertEquals(1, reader.getProgress(), 0);
+                assertTrue(reader.getPos() > 0);
+            } finally {
+                reader.close();
+            }
+        }
+        assertEquals(6L * 155 * 123, records);
+    }
+
+}
@@ -0,0 +1,82 @@
+package netcdf.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GridCellTest {
+
+    private JobConf job;
+    private GridCell cell;
+
+    @Before
+    public void setUp() throws Exception {
+        job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.configure(GridDatasetConfigurationTest.MODEL, GridDatasetConfigurationTest.URL);
+        configuration.setCellDictionary(GridDatasetConfigurationTest.MODEL, "htsgwsfc", "m");
+        GridCellSerialization.register(job);
+        cell = new GridCell(GridDatasetConfigurationTest.MODEL, "htsgwsfc", "m", 1389657600000L, 61.5, -170.25, 1.75, 155, 123, 10, 20);
+    }
+
+    private static int size(GridCell cell, GridCell.Dictionary dictionary) throws IOException {
+        DataOutputBuffer output = new DataOutputBuffer();
+        cell.write(output, dictionary);
+        return output.getLength();
+    }
+
+    @Test
+    public void testDictionary() throws IOException {
+        GridCell.Dictionary dictionary = GridCell.Dictionary.of(new GridDatasetConfiguration(job));
+        assertEquals(3, dictionary.size());
+        assertTrue(size(cell, dictionary) < size(cell, new GridCell.Dictionary()));
+    }
+
+    @Test
+    public void testDictionaryIgnoresSources() {
+        JobConf other = new JobConf();
+        new GridDatasetConfiguration(other).configure(GridDatasetConfigurationTest.MODEL, GridDatasetConfigurationTest.URL);
+        assertEquals(0, GridCell.Dictionary.of(new GridDatasetConfiguration(other)).size());
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        SerializationFactory factory = new SerializationFactory(job);
+        Serializer<GridCell> serializer = factory.getSerializer(GridCell.class);
+        Deserializer<GridCell> deserializer = factory.getDeserializer(GridCell.class);
+        GridCell other = new GridCell("other", null, "K", 0, 0, 0, Double.NaN, 1, 1, 0, 0);
+        DataOutputBuffer output = new DataOutputBuffer();
+        serializer.open(output);
+        serializer.serialize(cell);
+        serializer.serialize(other);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        deserializer.open(input);
+        assertEquals(cell, deserializer.deserialize(null));
+        GridCell read = deserializer.deserialize(new GridCell());
+        assertEquals(other, read);
+        assertNull(read.getDatatype());
+        assertTrue(Double.isNaN(read.getValue()));
+    }
+
+    @Test
+    public void testCompareTo() {
+        GridCell later = new GridCell(cell.getModel(), cell.getDatatype(), cell.getUnit(), cell.getTimestamp() + 1,
+                                      cell.getLatitude(), cell.getLongitude(), cell.getValue(), 155, 123, 0, 0);
+        assertTrue(cell.compareTo(later) < 0);
+        assertTrue(later.compareTo(cell) > 0);
+        assertEquals(0, cell.compareTo(cell));
+    }
+
+}
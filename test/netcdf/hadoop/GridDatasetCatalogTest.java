@@ -0,0 +1,70 @@
+package netcdf.hadoop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GridDatasetCatalogTest {
+
+    static String URL = GridDatasetConfigurationTest.URL;
+
+    private File directory;
+    private JobConf job;
+    private GridDatasetCatalog catalog;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
+        job = new JobConf();
+        new GridDatasetConfiguration(job).setCatalogDirectory(directory);
+        catalog = new GridDatasetCatalog(job);
+        GridDatasetCatalog.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        GridDatasetCatalog.clear();
+        FileUtil.fullyDelete(directory);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        GridDatasetCatalog.Entry entry = catalog.get(URL);
+        assertArrayEquals(new String[]{"htsgwsfc"}, entry.getDatatypes());
+        assertEquals(61, entry.getTimestamps().length);
+        GridShape shape = entry.getShapes().get("htsgwsfc");
+        assertEquals(155, shape.getWidth());
+        assertEquals(123, shape.getHeight());
+        assertTrue(catalog.getFile(URL).isFile());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        GridDatasetCatalog.Entry entry = catalog.get(URL);
+        GridDatasetCatalog.Entry loaded = catalog.load(URL, entry.getVersion());
+        assertNotNull(loaded);
+        assertArrayEquals(entry.getDatatypes(), loaded.getDatatypes());
+        assertArrayEquals(entry.getTimestamps(), loaded.getTimestamps());
+        assertEquals(entry.getShapes().get("htsgwsfc").toString(), loaded.getShapes().get("htsgwsfc").toString());
+        assertNull(catalog.load(URL, "stale"));
+    }
+
+    @Test
+    public void testGetAll() throws Exception {
+        Map<String, GridDatasetCatalog.Entry> entries = catalog.getAll(URL, URL);
+        assertEquals(1, entries.size());
+        assertArrayEquals(new String[]{"htsgwsfc"}, entries.get(URL).getDatatypes());
+    }
+
+}
@@ -1,9 +1,12 @@
 package netcdf.hadoop;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 
 import java.io.File;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.mapred.JobConf;
 import org.joda.time.DateTime;
 import org.junit.After;
@@ -18,17 +21,21 @@ public class GridDatasetConfigurationTest {
     String AKW = "http://nomads.ncep.noaa.gov:9090/dods/wave/akw/akw20110331/akw20110331_00z";
     String NWW3 = "http://nomads.ncep.noaa.gov:9090/dods/wave/nww3/nww320110331/nww320110331_00z";
 
+    private File directory;
     private JobConf job;
     private GridDatasetConfiguration configuration;
 
     @Before
     public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
         job = new JobConf();
         configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
     }
 
     @After
     public void tearDown() throws Exception {
+        FileUtil.fullyDelete(directory);
     }
 
     @Test
@@ -45,6 +52,19 @@ public class GridDatasetConfigurationTest {
         assertEquals(61, timestamps[0].length);
     }
 
+    @Test
+    public void testConfigureAll() {
+        configuration.configure(new String[]{MODEL, MODEL}, new String[]{URL, URL});
+        assertEquals(2, configuration.getModels().length);
+        assertEquals("htsgwsfc", configuration.getDatatypes()[1][0]);
+        assertEquals(61, configuration.getTimestamps()[1].length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigureAllMismatch() {
+        configuration.configure(new String[]{MODEL, MODEL}, new String[]{URL});
+    }
+
     @Test
     public void testAddModel() {
         configuration.addModel("akw");
@@ -169,6 +189,35 @@ public class GridDatasetConfigurationTest {
         assertEquals(URL + "," + URL, job.get(GridDatasetConfiguration.URLS));
     }
 
+    @Test
+    public void testSplitTimestamps() {
+        assertEquals(0, configuration.getSplitTimestamps());
+        configuration.setSplitTimestamps(4);
+        assertEquals(4, configuration.getSplitTimestamps());
+    }
+
+    @Test
+    public void testSplitRows() {
+        assertEquals(0, configuration.getSplitRows());
+        configuration.setSplitRows(32);
+        assertEquals(32, configuration.getSplitRows());
+    }
+
+    @Test
+    public void testReuseTuples() {
+        assertFalse(configuration.isReuseTuples());
+        configuration.setReuseTuples(true);
+        assertTrue(configuration.isReuseTuples());
+    }
+
+    @Test
+    public void testCatalogDirectory() {
+        assertEquals(directory.getAbsoluteFile(), configuration.getCatalogDirectory());
+        JobConf other = new JobConf();
+        other.set("hadoop.tmp.dir", directory.getAbsolutePath());
+        assertEquals(new File(directory.getAbsolutePath(), "netcdf-catalog"), new GridDatasetConfiguration(other).getCatalogDirectory());
+    }
+
     @Test
     public void testGridDatasetConfiguration() {
         GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
@@ -2,9 +2,13 @@ package netcdf.hadoop;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.joda.time.DateTime;
@@ -17,6 +21,7 @@ public class GridDatasetInputFormatTest {
     public static String MODEL = GridDatasetConfigurationTest.MODEL;
     public static String URL = GridDatasetConfigurationTest.URL;
 
+    private File directory;
     private JobConf job;
     private GridDatasetConfiguration configuration;
 
@@ -25,8 +30,10 @@ public class GridDatasetInputFormatTest {
 
     @Before
     public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
         job = new JobConf();
         configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
         configuration.configure(MODEL, URL);
         datatypes = GridDatasetConfiguration.datatypes(URL);
         timestamps = GridDatasetConfiguration.timestamps(URL);
@@ -34,6 +41,7 @@ public class GridDatasetInputFormatTest {
 
     @After
     public void tearDown() throws Exception {
+        FileUtil.fullyDelete(directory);
     }
 
     @Test
@@ -69,4 +77,54 @@ public class GridDatasetInputFormatTest {
         assertEquals(configuration.getDatatypes()[0].length, splits.length);
     }
 
+    @Test
+    public void testGetSplitsLength() throws IOException {
+        GridDatasetInputFormat input = new GridDatasetInputFormat();
+        InputSplit whole = input.getSplits(job, -1)[0];
+        configuration.setSplitTimestamps(1);
+        InputSplit single = input.getSplits(job, -1)[0];
+        assertEquals(0, single.getLength() % (155 * 123));
+        assertEquals(timestamps.length * single.getLength(), whole.getLength());
+    }
+
+    @Test
+    public void testGetSplitsLocations() throws IOException {
+        GridDatasetInputFormat input = new GridDatasetInputFormat();
+        InputSplit split = input.getSplits(job, -1)[0];
+        assertTrue(split.getLocations().length > 0);
+    }
+
+    @Test
+    public void testGetHosts() {
+        assertEquals(0, GridDatasetInputFormat.getHosts(job, "http://nomads.ncep.noaa.gov/dods/wave/akw").length);
+        assertTrue(GridDatasetInputFormat.isFileSystemUrl(URL));
+        assertTrue(GridDatasetInputFormat.isFileSystemUrl("hdfs://namenode/netcdf/akw.nc"));
+        assertFalse(GridDatasetInputFormat.isFileSystemUrl("https://nomads.ncep.noaa.gov/dods/wave/akw"));
+    }
+
+    @Test
+    public void testGetSplitsPerTimestamp() throws IOException {
+        configuration.setSplitTimestamps(1);
+        GridDatasetInputFormat input = new GridDatasetInputFormat();
+        InputSplit[] splits = input.getSplits(job, -1);
+        assertEquals(datatypes.length * timestamps.length, splits.length);
+        GridDatasetInputFormat.GridDatasetInputSplit split = (GridDatasetInputFormat.GridDatasetInputSplit) splits[0];
+        assertEquals(1, split.getTimestamps().length);
+        assertEquals(timestamps[0], split.getTimestamps()[0]);
+    }
+
+    @Test
+    public void testGetSplitsWithTimestampsAndRows() throws IOException {
+        configuration.setSplitTimestamps(30);
+        configuration.setSplitRows(50);
+        GridDatasetInputFormat input = new GridDatasetInputFormat();
+        InputSplit[] splits = input.getSplits(job, -1);
+        // 61 timestamps in 3 partitions, 123 rows in 3 bands
+        assertEquals(datatypes.length * 3 * 3, splits.length);
+        GridDatasetInputFormat.GridDatasetInputSplit split = (GridDatasetInputFormat.GridDatasetInputSplit) splits[2];
+        assertEquals(30, split.getTimestamps().length);
+        assertEquals(100, split.getFirstRow());
+        assertEquals(23, split.getRowCount());
+    }
+
 }
@@ -1,39 +1,90 @@
 package netcdf.hadoop;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import org.joda.time.DateTime;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 import org.joda.time.DateTime;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
 import netcdf.cascading.TupleWrapper;
 import netcdf.hadoop.GridDatasetInputFormat.GridDatasetRecordReader;
 import cascading.tuple.Tuple;
 
 public class GridDatasetRecordReaderTest {
 
+    private File directory;
     private JobConf job;
     private GridDatasetConfiguration configuration;
     private GridDatasetRecordReader reader;
     private GridDatasetInputFormat inputFormat;
 
+    /**
+     * A reporter that only collects counters.
+     */
+    static class CountingReporter implements Reporter {
+
+        final Counters counters = new Counters();
+
+        public void progress() {}
+
+        public float getProgress() {
+            return 0;
+        }
+
+        public void setStatus(String status) {}
+
+        public Counters.Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        public Counters.Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        public void incrCounter(Enum<?> key, long amount) {
+            counters.incrCounter(key, amount);
+        }
+
+        public void incrCounter(String group, String counter, long amount) {
+            counters.incrCounter(group, counter, amount);
+        }
+
+        public InputSplit getInputSplit() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
     NullWritable key = NullWritable.get();
     TupleWrapper value = new TupleWrapper(new Tuple());
 
     @Before
     public void setUp() throws Exception {
 	//    	PropertyConfigurator.configure("resources/log4j.properties");
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
         job = new JobConf();
         job.setInputFormat(GridDatasetInputFormat.class);
         configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
         configuration.configure(GridDatasetInputFormatTest.MODEL, GridDatasetInputFormatTest.URL);
         inputFormat = (GridDatasetInputFormat) job.getInputFormat();
         InputSplit[] splits = inputFormat.getSplits(job, -1);
@@ -43,6 +94,7 @@ public class GridDatasetRecordReaderTest {
     @After
     public void tearDown() throws Exception {
     	reader.close();
+        FileUtil.fullyDelete(directory);
     }
 
     @Test
@@ -85,6 +137,22 @@ public class GridDatasetRecordReaderTest {
         assertEquals(1, reader.getY(reader.getWidth()));
     }
 
+    @Test
+    public void testGetYWithRows() throws IOException {
+        configuration.setSplitRows(50);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader rows = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[1], job, null);
+        try {
+            assertEquals(50, rows.getY(0));
+            assertEquals(51, rows.getY(rows.getWidth()));
+            assertEquals(50, rows.getY(rows.getWidth() * 50));
+            rows.next(key, value);
+            assertEquals(50, value.tuple.getLong(10));
+        } finally {
+            rows.close();
+        }
+    }
+
     @Test
     public void testNext() throws IOException {
     	reader.next(key, value);
@@ -113,6 +181,237 @@ public class GridDatasetRecordReaderTest {
     	assertEquals(0, value.tuple.getLong(10));
     }
 
+    @Test
+    public void testNextWithReuse() throws IOException {
+        configuration.setReuseTuples(true);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader reusing = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            TupleWrapper value = reusing.createValue();
+            reusing.next(key, value);
+            Tuple tuple = value.tuple;
+            assertEquals(GridDatasetInputFormat.FIELDS, tuple.size());
+            assertEquals("akw", tuple.getString(0));
+            assertEquals(0, tuple.getLong(9));
+            reusing.next(key, value);
+            assertSame(tuple, value.tuple);
+            assertEquals("akw", value.tuple.getString(0));
+            assertEquals("htsgwsfc", value.tuple.getString(1));
+            assertEquals(new DateTime(1389830400000L), value.tuple.getObject(2));
+            assertEquals(44.75, value.tuple.getDouble(3), 0);
+            assertEquals(160, value.tuple.getDouble(4), 0);
+            assertEquals(155, value.tuple.getLong(7));
+            assertEquals(123, value.tuple.getLong(8));
+            assertEquals(1, value.tuple.getLong(9));
+            assertEquals(0, value.tuple.getLong(10));
+            for (int n = 2; n <= reusing.getWidth(); ++n)
+                reusing.next(key, value);
+            assertEquals(0, value.tuple.getLong(9));
+            assertEquals(1, value.tuple.getLong(10));
+        } finally {
+            reusing.close();
+        }
+    }
+
+    @Test
+    public void testNextWithFields() throws IOException {
+        configuration.setFields("value", "x", "y");
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader fields = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            fields.next(key, value);
+            fields.next(key, value);
+            assertEquals(3, value.tuple.size());
+            assertEquals(Double.NaN, value.tuple.getDouble(0), 0);
+            assertEquals(1, value.tuple.getLong(1));
+            assertEquals(0, value.tuple.getLong(2));
+        } finally {
+            fields.close();
+        }
+    }
+
+    @Test
+    public void testNextWithBoundingBox() throws IOException {
+        configuration.setBoundingBox(new LatLonRect(new LatLonPointImpl(50, 170), new LatLonPointImpl(60, 180)));
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader box = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            long records = 0;
+            while (box.next(key, value)) {
+                double latitude = value.tuple.getDouble(3);
+                double longitude = value.tuple.getDouble(4);
+                assertTrue(latitude >= 49.75 && latitude <= 60.25);
+                assertTrue(longitude >= 169.5 && longitude <= 180.5);
+                records++;
+            }
+            assertTrue(records > 0);
+            assertTrue(records < reader.getWidth() * reader.getHeight() * 61);
+        } finally {
+            box.close();
+        }
+    }
+
+    @Test
+    public void testGetFieldIndexes() {
+        assertArrayEquals(new int[]{5, 9, 10}, GridDatasetInputFormat.getFieldIndexes(new String[]{"value", "x", "y"}));
+        assertEquals(GridDatasetInputFormat.FIELDS, GridDatasetInputFormat.getFieldIndexes(null).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetFieldIndexesWithUnknownField() {
+        GridDatasetInputFormat.getFieldIndexes(new String[]{"unknown"});
+    }
+
+    @Test
+    public void testNextWithSkipMissing() throws IOException {
+        long total = 0;
+        long missing = 0;
+        while (reader.next(key, value)) {
+            total++;
+            if (Double.isNaN(value.tuple.getDouble(5)))
+                missing++;
+        }
+        configuration.setSkipMissing(true);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader skipping = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            long records = 0;
+            while (skipping.next(key, value)) {
+                assertFalse(Double.isNaN(value.tuple.getDouble(5)));
+                LatLonPoint location = skipping.getLocation();
+                assertEquals(value.tuple.getInteger(9), skipping.getX());
+                assertEquals(value.tuple.getInteger(10), skipping.getY());
+                assertEquals(location.getLatitude(), value.tuple.getDouble(3), 0);
+                assertEquals(location.getLongitude(), value.tuple.getDouble(4), 0);
+                records++;
+            }
+            assertTrue(missing > 0);
+            assertEquals(total - missing, records);
+            assertEquals(missing, skipping.getSkipped());
+            assertEquals(1, skipping.getProgress(), 0.001);
+        } finally {
+            skipping.close();
+        }
+    }
+
+    @Test
+    public void testNextWithStaticMask() throws IOException {
+        // the mask is computed from the first slice, so compare that one
+        configuration.setSplitTimestamps(1);
+        configuration.setSkipMissing(true);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader skipping = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        configuration.setStaticMask(true);
+        GridDatasetRecordReader masked = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            TupleWrapper other = new TupleWrapper(new Tuple());
+            while (skipping.next(key, value)) {
+                assertTrue(masked.next(key, other));
+                assertEquals(value.tuple, other.tuple);
+            }
+            assertFalse(masked.next(key, other));
+        } finally {
+            skipping.close();
+            masked.close();
+        }
+    }
+
+    @Test
+    public void testNextWithPrefetch() throws IOException {
+        configuration.setPrefetchDepth(2);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader prefetching = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            TupleWrapper other = new TupleWrapper(new Tuple());
+            while (reader.next(key, value)) {
+                assertTrue(prefetching.next(key, other));
+                assertEquals(value.tuple, other.tuple);
+                assertEquals(reader.getProgress(), prefetching.getProgress(), 0);
+            }
+            assertFalse(prefetching.next(key, other));
+            assertEquals(1, prefetching.getProgress(), 0.001);
+        } finally {
+            prefetching.close();
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForPrefetch() throws IOException {
+        configuration.setPrefetchDepth(4);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader prefetching = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        assertTrue(prefetching.next(key, value));
+        prefetching.close();
+        for (Map.Entry<Thread, StackTraceElement[]> thread: Thread.getAllStackTraces().entrySet()) {
+            if ("netcdf-prefetch".equals(thread.getKey().getName())) {
+                for (StackTraceElement frame: thread.getValue())
+                    assertFalse(frame.getClassName().startsWith(GridDatasetRecordReader.class.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void testNextWithCompact() throws IOException {
+        configuration.setCompact(true);
+        configuration.setReuseTuples(true);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        GridDatasetRecordReader compact = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, null);
+        try {
+            TupleWrapper other = compact.createValue();
+            for (int n = 0; n < 1000 && reader.next(key, value); ++n) {
+                assertTrue(compact.next(key, other));
+                assertEquals(1, other.tuple.size());
+                GridCell cell = (GridCell) other.tuple.getObject(0);
+                assertEquals(value.tuple.getString(0), cell.getModel());
+                assertEquals(value.tuple.getString(1), cell.getDatatype());
+                assertEquals(((DateTime) value.tuple.getObject(2)).getMillis(), cell.getTimestamp());
+                assertEquals(value.tuple.getDouble(3), cell.getLatitude(), 0);
+                assertEquals(value.tuple.getDouble(4), cell.getLongitude(), 0);
+                assertEquals(value.tuple.getDouble(5), cell.getValue(), 0);
+                assertEquals(value.tuple.getString(6), cell.getUnit());
+                assertEquals(value.tuple.getInteger(9), cell.getX());
+                assertEquals(value.tuple.getInteger(10), cell.getY());
+            }
+        } finally {
+            compact.close();
+        }
+    }
+
+    @Test
+    public void testCounters() throws IOException {
+        configuration.setSkipMissing(true);
+        InputSplit[] splits = inputFormat.getSplits(job, -1);
+        CountingReporter reporter = new CountingReporter();
+        GridDatasetRecordReader counting = (GridDatasetRecordReader) inputFormat.getRecordReader(splits[0], job, reporter);
+        long records = 0;
+        try {
+            while (counting.next(key, value))
+                records++;
+        } finally {
+            counting.close();
+        }
+        Counters counters = reporter.counters;
+        int timestamps = ((GridDatasetInputFormat.GridDatasetInputSplit) splits[0]).getTimestamps().length;
+        assertEquals(records, counters.getCounter(GridDatasetCounter.RECORDS));
+        assertEquals(counting.getSkipped(), counters.getCounter(GridDatasetCounter.MISSING_SKIPPED));
+        assertEquals(timestamps, counters.getCounter(GridDatasetCounter.SLICES_READ));
+        long bytes = counters.getCounter(GridDatasetCounter.BYTES_READ);
+        assertTrue(bytes > 0);
+        assertEquals(0, bytes % (155L * 123 * timestamps));
+        long slices = 0;
+        for (GridDatasetCounter.SliceReadLatency bucket: GridDatasetCounter.SliceReadLatency.values())
+            slices += counters.getCounter(bucket);
+        assertEquals(timestamps, slices);
+    }
+
+    @Test
+    public void testSliceReadLatency() {
+        assertEquals(GridDatasetCounter.SliceReadLatency.UNDER_10_MS, GridDatasetCounter.SliceReadLatency.of(0));
+        assertEquals(GridDatasetCounter.SliceReadLatency.UNDER_100_MS, GridDatasetCounter.SliceReadLatency.of(10));
+        assertEquals(GridDatasetCounter.SliceReadLatency.UNDER_10_SEC, GridDatasetCounter.SliceReadLatency.of(9999));
+        assertEquals(GridDatasetCounter.SliceReadLatency.OVER_1_MIN, GridDatasetCounter.SliceReadLatency.of(60000));
+    }
+
     @Test
     public void testBenchmark() throws IOException {
     	while (reader.next(key, value)) {
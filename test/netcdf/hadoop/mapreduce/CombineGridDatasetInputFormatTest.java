@@ -0,0 +1,137 @@
+package netcdf.hadoop.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.io.NullWritable;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import netcdf.cascading.TupleWrapper;
+import netcdf.hadoop.GridDatasetConfiguration;
+import netcdf.hadoop.GridDatasetCounter;
+import netcdf.hadoop.mapreduce.CombineGridDatasetInputFormat.CombineGridDatasetSplit;
+import netcdf.hadoop.mapreduce.CombineGridDatasetInputFormat.ContextReporter;
+
+public class CombineGridDatasetInputFormatTest {
+
+    static String URL = new File("test-resources/akw-htsgwsfc-2014-01-14T00.nc").getAbsolutePath();
+
+    /**
+     * A StatusReporter that keeps its counters.
+     */
+    static class CountersReporter extends StatusReporter {
+
+        final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+
+    }
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "netcdf-catalog-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.fullyDelete(directory);
+    }
+
+    @Test
+    public void testGetSplits() throws Exception {
+        JobConf job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
+        DateTime[] timestamps = Arrays.copyOf(GridDatasetConfiguration.timestamps(URL), 3);
+        configuration.configure("a", URL, new String[]{"htsgwsfc"}, timestamps);
+        configuration.setSplitTimestamps(1);
+        List<InputSplit> splits = new CombineGridDatasetInputFormat().getSplits(Job.getInstance(job));
+        assertEquals(1, splits.size());
+        assertEquals(3, ((CombineGridDatasetSplit) splits.get(0)).getSplit().getSplits().length);
+    }
+
+    @Test
+    public void testContextReporterInputSplit() throws Exception {
+        JobConf job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
+        configuration.configure("a", URL, new String[]{"htsgwsfc"}, Arrays.copyOf(GridDatasetConfiguration.timestamps(URL), 2));
+        List<InputSplit> splits = new CombineGridDatasetInputFormat().getSplits(Job.getInstance(job));
+        CombineGridDatasetSplit split = (CombineGridDatasetSplit) splits.get(0);
+        ContextReporter reporter = new ContextReporter(new TaskAttemptContextImpl(job, new TaskAttemptID()), split.getSplit());
+        assertSame(split.getSplit(), reporter.getInputSplit());
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        JobConf job = new JobConf();
+        GridDatasetConfiguration configuration = new GridDatasetConfiguration(job);
+        configuration.setCatalogDirectory(directory);
+        configuration.configure("a", URL, new String[]{"htsgwsfc"}, Arrays.copyOf(GridDatasetConfiguration.timestamps(URL), 2));
+        configuration.setSkipMissing(true);
+        CombineGridDatasetInputFormat format = new CombineGridDatasetInputFormat();
+        InputSplit split = format.getSplits(Job.getInstance(job)).get(0);
+        CountersReporter status = new CountersReporter();
+        TaskAttemptContext context = new TaskAttemptContextImpl(job, new TaskAttemptID(), status);
+        RecordReader<NullWritable, TupleWrapper> reader = format.createRecordReader(split, context);
+        long records = 0;
+        try {
+            reader.initialize(split, context);
+            while (reader.nextKeyValue())
+                records++;
+        } finally {
+            reader.close();
+        }
+        assertEquals(records, status.counters.findCounter(GridDatasetCounter.RECORDS).getValue());
+        assertEquals(2, status.counters.findCounter(GridDatasetCounter.SLICES_READ).getValue());
+        assertEquals(155L * 123 * 2, records + status.counters.findCounter(GridDatasetCounter.MISSING_SKIPPED).getValue());
+        ContextReporter reporter = new ContextReporter(context, ((CombineGridDatasetSplit) split).getSplit());
+        reporter.getCounter(GridDatasetCounter.RECORDS).increment(3);
+        assertEquals(records + 3, reporter.getCounter(GridDatasetCounter.RECORDS).getValue());
+        assertEquals(records + 3, status.counters.findCounter(GridDatasetCounter.RECORDS).getValue());
+        reporter.getCounter("netcdf", "test").increment(2);
+        assertEquals(2, status.counters.findCounter("netcdf", "test").getValue());
+    }
+
+}
@@ -75,3 +75,27 @@
       (is (not (empty? reference-times)))
       (is (every? #(instance? DateTime %1) reference-times))
       (is (contains? (set reference-times) example-reference-time)))))
+
+(deftest test-local-reference-times-index
+  (let [root (str (System/getProperty "java.io.tmpdir") "/netcdf-index-" (System/nanoTime))
+        repository (make-local-repository root)
+        touch #(doto (File. (local-dataset-url nww3 htsgwsfc % root))
+                 (.. getParentFile mkdirs)
+                 (spit "0"))]
+    (binding [*index-refresh-interval* 0]
+      (is (empty? (local-reference-times repository nww3)))
+      (touch (date-time 2011 12 1 0))
+      (touch (date-time 2011 12 1 6))
+      (let [times (local-reference-times repository nww3)]
+        (is (sorted? times))
+        (is (= [(date-time 2011 12 1 0) (date-time 2011 12 1 6)] (seq times))))
+      (is (= 2 (count (local-reference-times repository nww3 htsgwsfc))))
+      (is (empty? (local-reference-times repository {:name "akw"})))
+      (with-repository repository
+        (is (= (date-time 2011 12 1 6) (latest-reference-time nww3))))
+      (.delete (File. (local-dataset-url nww3 htsgwsfc (date-time 2011 12 1 6) root)))
+      (is (= [(date-time 2011 12 1 0)] (seq (local-reference-times repository nww3)))))
+    (binding [*index-refresh-interval* (* 60 60 1000)]
+      (index-reference-time! root nww3 htsgwsfc (date-time 2011 12 2 0))
+      (with-repository repository
+        (is (= (date-time 2011 12 2 0) (latest-reference-time nww3)))))))
@@ -16,7 +16,7 @@
 
 (defmacro with-test-inventory [& body]
   `(let [inventory# (dods/parse-inventory "test-resources/dods/wave/nww3")]
-     (with-redefs [dods/parse-inventory (fn [url#] inventory#)]
+     (with-redefs [dods/parse-inventory (fn [url# & _#] inventory#)]
        ~@body)))
 
 (def example-reference-time
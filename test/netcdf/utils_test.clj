@@ -52,3 +52,38 @@
   (let [files (netcdf-file-seq *repository*)]
     (is (every? #(instance? File %1) files))
     (is (every? netcdf-file? files))))
+
+(deftest test-save-md5-checksum
+  (let [filename "/tmp/.netcdf-md5-test"]
+    (spit filename "netcdf")
+    (save-md5-checksum filename)
+    (let [saved (read-md5-checksum filename)]
+      (is (= (md5-checksum filename) (:md5 saved)))
+      (is (= 6 (:size saved)))
+      (is (= (.lastModified (File. filename)) (:modified saved))))))
+
+(deftest test-valid-md5-checksum?
+  (let [filename "/tmp/.netcdf-md5-valid-test"]
+    (spit filename "netcdf")
+    (is (not (valid-md5-checksum? filename)))
+    (save-md5-checksum filename)
+    (is (valid-md5-checksum? filename))
+    (spit filename "changed")
+    (is (not (valid-md5-checksum? filename)))
+    (spit (str filename ".md5") (str (md5-checksum filename) "\n"))
+    (is (valid-md5-checksum? filename))
+    (is (= 7 (:size (read-md5-checksum filename))))))
+
+(deftest test-rate-limited-md5-checksum
+  (let [filename "/tmp/.netcdf-md5-rate-test"]
+    (spit filename "netcdf")
+    (is (= (md5-checksum filename) (rate-limited-md5-checksum filename 1000000)))))
+
+(deftest test-verify-md5-checksums
+  (let [valid "/tmp/.netcdf-md5-verify-valid" invalid "/tmp/.netcdf-md5-verify-invalid"]
+    (spit valid "netcdf")
+    (save-md5-checksum valid)
+    (spit invalid "netcdf")
+    (save-md5-checksum invalid)
+    (spit invalid "tampered")
+    (is (= [invalid] @(verify-md5-checksums [valid invalid] :bytes-per-second 1000000)))))
@@ -50,6 +50,39 @@
           (is (< 0 (:size variable)))
           (is (= example-reference-time (:reference-time variable))))))))
 
+(deftest test-download-variable-resume
+  (let [root-dir "/tmp/netcdf-download-resume"
+        target (local-dataset-url nww3 htsgwsfc example-reference-time root-dir)
+        save-progress @#'netcdf.dataset/save-progress
+        saved (atom [])]
+    (doseq [filename [target (str target ".md5") (str target ".progress")]]
+      (clojure.java.io/delete-file filename true))
+    (with-redefs [netcdf.repository/dods-dataset-url (constantly example-path)]
+      (with-redefs-fn {#'netcdf.dataset/save-progress
+                       (fn [target chunk]
+                         (when (= 3 (count @saved))
+                           (throw (java.io.IOException. "Connection reset")))
+                         (save-progress target chunk)
+                         (swap! saved conj chunk))}
+        #(is (thrown? java.io.IOException
+                      (download-variable nww3 htsgwsfc :reference-time example-reference-time
+                                         :root-dir root-dir :chunk-size 10))))
+      (is (.exists (java.io.File. (str target ".progress"))))
+      (let [interrupted (set @saved)]
+        (reset! saved [])
+        (with-redefs-fn {#'netcdf.dataset/save-progress
+                         (fn [target chunk]
+                           (save-progress target chunk)
+                           (swap! saved conj chunk))}
+          #(download-variable nww3 htsgwsfc :reference-time example-reference-time
+                              :root-dir root-dir :chunk-size 10))
+        (is (not (empty? @saved)))
+        (is (not-any? interrupted @saved))))
+    (is (not (.exists (java.io.File. (str target ".progress")))))
+    (is (netcdf.dataset/copy-complete? target))
+    (netcdf.dataset/with-grid-dataset [dataset target]
+      (is (= 61 (count (netcdf.dataset/valid-times dataset)))))))
+
 (deftest test-valid-times
   (let [valid-times (valid-times nww3 htsgwsfc example-reference-time)]
     (is (not (empty? valid-times)))